@@ -3,8 +3,15 @@ package com.thordickinson.dumbcrawler;
 import com.thordickinson.dumbcrawler.api.*;
 import com.thordickinson.dumbcrawler.exceptions.CrawlingException;
 import com.thordickinson.dumbcrawler.services.*;
+import com.thordickinson.dumbcrawler.services.executor.CrawlingPipeline;
+import com.thordickinson.dumbcrawler.services.executor.FetchExecutor;
 import com.thordickinson.dumbcrawler.services.renderer.ContentRenderer;
+import com.thordickinson.dumbcrawler.services.storage.AbstractStorageManager;
+import com.thordickinson.dumbcrawler.services.storage.AsyncStorageWriter;
 import com.thordickinson.dumbcrawler.services.storage.GZipStorageManager;
+import com.thordickinson.dumbcrawler.services.storage.SegmentStorageManager;
+import com.thordickinson.dumbcrawler.services.storage.WarcStorageManager;
+import com.thordickinson.dumbcrawler.util.Misc;
 import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,10 +19,13 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.SocketTimeoutException;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.stream.Collectors;
 
 import static com.thordickinson.dumbcrawler.util.HumanReadable.formatBits;
 import static com.thordickinson.dumbcrawler.util.HumanReadable.formatDuration;
@@ -23,13 +33,16 @@ import static com.thordickinson.dumbcrawler.util.HumanReadable.formatDuration;
 @Service
 public class DumbCrawler implements Runnable {
 
-    private record TaskWrapper(CrawlingTask task, Future<CrawlingResult> future) {
-    }
-
+    private static final long TICK_INTERVAL = 1000;
+    private static final long STORAGE_POLL_INTERVAL = 100;
+    private static final int MIN_HOSTS_PER_LOAD = 4;
+    private static final int MAX_EXCLUDED_HOSTS = 200;
     private static final Logger logger = LoggerFactory.getLogger(DumbCrawler.class);
     private static final Logger errorLogger = LoggerFactory.getLogger(DumbCrawler.class.getName() + ".error");
 
     private URLStore urlStore;
+    private HostScheduler hostScheduler;
+    private UrlMetadataCache urlCache;
     @Autowired
     private ConfigurableApplicationContext appContext;
     @Autowired
@@ -37,7 +50,12 @@ public class DumbCrawler implements Runnable {
     @Autowired
     private UrlTagger urlTagger;
     @Autowired
-    private GZipStorageManager storageManager;
+    private GZipStorageManager gzipStorageManager;
+    @Autowired
+    private WarcStorageManager warcStorageManager;
+    @Autowired
+    private SegmentStorageManager segmentStorageManager;
+    private AbstractStorageManager storageManager;
     @Autowired
     private ContentRenderer contentRenderer;
     @Autowired
@@ -50,11 +68,15 @@ public class DumbCrawler implements Runnable {
     private TaskKiller taskKiller;
 
     private boolean stopped = false;
-    private ThreadPoolExecutor executor;
-    private final Set<TaskWrapper> runningTasks = new HashSet<>();
+    private FetchExecutor executor;
+    private CrawlingPipeline pipeline;
+    private AsyncStorageWriter storageWriter;
+    private final Map<Future<CrawlingResult>, CrawlingTask> runningTasks = new HashMap<>();
 
     private Set<String> seeds = Collections.emptySet();
     private long nextStatisticsPrint = -1;
+    private long nextTick = -1;
+    private long nextStoreLoad = -1;
     private final Runtime rt = Runtime.getRuntime();
     private CrawlingSessionContext sessionContext;
 
@@ -67,26 +89,53 @@ public class DumbCrawler implements Runnable {
     }
 
     private void runLoop(CrawlingSessionContext sessionContext) {
-        processCompletedTasks(sessionContext);
         scheduleNewTasks(sessionContext);
-        printCounters(sessionContext);
-        sessionContext.loopCompleted();
-        if (taskKiller.shouldStop(sessionContext)) {
-            stop();
-        } else {
-            sleep();
+        if (stopped) {
+            return;
         }
+        processCompletedTasks(sessionContext);
+        processStoredResults();
+        tick(sessionContext);
     }
 
+    /**
+     * Blocks until a task completes, a host becomes due or the next tick is due, then processes every task that is already done.
+     * The loop goes back to scheduling right after, so finished workers are refilled without waiting for the tick.
+     */
     private void processCompletedTasks(CrawlingSessionContext sessionContext) {
-        var completedTasks = new HashSet<TaskWrapper>();
-        for (var wrapper : runningTasks) {
-            if (wrapper.future().isDone()) {
-                processCompletedTask(wrapper, sessionContext);
-                completedTasks.add(wrapper);
+        var timeout = Math.max(0, nextTick - System.currentTimeMillis());
+        if (executor.getFetchingCount() < executor.getCapacity()) {
+            timeout = Math.min(timeout, hostScheduler.getNextDueIn());
+        }
+        if (storageWriter != null && storageWriter.getPending() > 0) {
+            timeout = Math.min(timeout, STORAGE_POLL_INTERVAL);
+        }
+        try {
+            var completed = executor.poll(timeout, TimeUnit.MILLISECONDS);
+            while (completed != null) {
+                processCompletedTask(completed, sessionContext);
+                completed = executor.poll();
             }
+        } catch (InterruptedException ex) {
+            //Exception is ignored
+        }
+    }
+
+    /**
+     * Time based work: statistics, counter persistence and the stop checks run at most once per
+     * {@link #TICK_INTERVAL} regardless of how many tasks complete in between.
+     */
+    private void tick(CrawlingSessionContext sessionContext) {
+        var now = System.currentTimeMillis();
+        if (nextTick > now) {
+            return;
+        }
+        nextTick = now + TICK_INTERVAL;
+        printCounters(sessionContext);
+        sessionContext.saveCounters();
+        if (taskKiller.shouldStop(sessionContext)) {
+            stop();
         }
-        runningTasks.removeAll(completedTasks);
     }
 
     private void handleCrawlingException(CrawlingException ex){
@@ -100,18 +149,37 @@ public class DumbCrawler implements Runnable {
         urlStore.markTasAsFailed(ex.getTask(), ex);
     }
 
-    private void processCompletedTask(TaskWrapper wrapper, CrawlingSessionContext sessionContext) {
-        var future = wrapper.future();
+    private void processCompletedTask(Future<CrawlingResult> future, CrawlingSessionContext sessionContext) {
+        var task = runningTasks.remove(future);
+        if (future.isCancelled()) {
+            hostScheduler.release(task);
+            logger.debug("Task was cancelled before it started: {}", task.url());
+            return;
+        }
+        releaseHost(future, task);
         try {
             var result = future.get();
             var links = result.links();
-            if(links.isEmpty()){
-                logger.warn("Page does not contains any links: {}", wrapper.task().url());
+            if (result.revisit()) {
+                sessionContext.increaseCounter(result.content().isNotModified() ? "NOT_MODIFIED_URLS" : "UNCHANGED_URLS");
+            } else if(links.isEmpty()){
+                logger.warn("Page does not contains any links: {}", task.url());
+            }
+            saveLinks(result.linkTasks());
+            if (storageWriter != null) {
+                // Marked as processed once the writer has flushed the page
+                storageWriter.submit(result);
+                return;
+            }
+            if (pipeline == null) {
+                var failures = storageManager.storeResults(List.of(result), sessionContext);
+                if (!failures.isEmpty()) {
+                    sessionContext.increaseCounter("ERROR_" + failures.get(0).error().getClass().getSimpleName());
+                    urlStore.markTasAsFailed(task, failures.get(0).error());
+                    return;
+                }
             }
-            saveLinks(links);
-            storageManager.storeResult(result, sessionContext);
-            sessionContext.increaseCounter("PROCESSED_URLS");
-            urlStore.markTaskAsProcessed(result.task());
+            markAsProcessed(result);
         } catch (CrawlingException ex) {
             handleCrawlingException(ex);
         } catch (Throwable ex) {
@@ -121,21 +189,92 @@ public class DumbCrawler implements Runnable {
                 return;
             }
             sessionContext.increaseCounter("ERROR_" + exception.getClass().getSimpleName());
-            urlStore.markTasAsFailed(wrapper.task(), ex);
-            logger.error("An unexpected error was caught: {} -> {}", wrapper.task().taskId(), wrapper.task().url(), ex);
+            urlStore.markTasAsFailed(task, ex);
+            logger.error("An unexpected error was caught: {} -> {}", task.taskId(), task.url(), ex);
+        }
+    }
+
+    private void markAsProcessed(CrawlingResult result) {
+        sessionContext.increaseCounter("PROCESSED_URLS");
+        urlStore.markTaskAsProcessed(result.task(), result.validators());
+    }
+
+    /**
+     * Marks the tasks whose pages the storage writer has flushed. Pages that couldn't be written, or whose batch
+     * couldn't be flushed, are marked as failed so they are fetched again.
+     */
+    private void processStoredResults() {
+        if (storageWriter == null) {
+            return;
+        }
+        var stored = storageWriter.poll();
+        while (stored != null) {
+            if (stored.error() == null) {
+                markAsProcessed(stored.result());
+            } else {
+                sessionContext.increaseCounter("ERROR_" + stored.error().getClass().getSimpleName());
+                urlStore.markTasAsFailed(stored.result().task(), stored.error());
+            }
+            stored = storageWriter.poll();
+        }
+    }
+
+    /**
+     * Waits for the storage writer to flush the queued pages so their tasks are marked before the store is closed.
+     */
+    private void flushStorage() {
+        if (storageWriter == null) {
+            return;
+        }
+        try {
+            if (!storageWriter.shutdown(1, TimeUnit.MINUTES)) {
+                logger.warn("Storage writer did not terminate in time, {} pages pending", storageWriter.getPending());
+            }
+        } catch (InterruptedException ex) {
+            logger.error("Error while waiting for the storage writer", ex);
+        }
+        processStoredResults();
+    }
+
+    /**
+     * Releases the host slot of a completed task, reporting the fetch latency or the error to the host limits.
+     */
+    private void releaseHost(Future<CrawlingResult> future, CrawlingTask task) {
+        try {
+            var result = future.get();
+            hostScheduler.release(task, result.fetchedAt() - result.startedAt());
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof CrawlingException crawlingException) {
+                hostScheduler.release(task, crawlingException);
+            } else {
+                hostScheduler.release(task);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            hostScheduler.release(task);
         }
     }
 
     private CrawlingTask createLinkTask(String link) {
+        return urlCache.get(link, this::doCreateLinkTask);
+    }
+
+    private CrawlingTask doCreateLinkTask(String link) {
         var tags = urlTagger.tagUrls(link);
         var priority = linkPrioritizer.getPriorityForTag(tags);
         var urlId = urlHasher.hashUrl(link);
         return new CrawlingTask(null, urlId, link, tags, 0, priority);
     }
 
-    private void saveLinks(Collection<String> toAdd) {
-        var links = toAdd.stream().map(this::createLinkTask)
+    /**
+     * Runs on the fetch workers, every component used here must be thread safe.
+     */
+    private List<CrawlingTask> createLinkTasks(Collection<String> links) {
+        return links.stream().map(this::createLinkTask)
                 .filter(l -> linkFilter.isURLAllowed(l, sessionContext)).toList();
+    }
+
+    private void saveLinks(List<CrawlingTask> links) {
         logger.debug("Adding {} new links to store", links.size());
         urlStore.addTasks(links);
     }
@@ -147,7 +286,9 @@ public class DumbCrawler implements Runnable {
 
     private void terminate() {
         logger.info("Ending crawling session");
+        flushStorage();
         stopComponents();
+        urlStore.close();
         sessionContext.destroy();
         awaitTermination();
         appContext.close();
@@ -155,16 +296,34 @@ public class DumbCrawler implements Runnable {
 
     private void awaitTermination() {
         if(executor == null) return;
+        executor.shutdown();
         try {
             if(!executor.awaitTermination(1, TimeUnit.MINUTES)){
                 executor.shutdownNow();
             }
+            if (pipeline != null) {
+                pipeline.shutdown();
+                if (!pipeline.awaitTermination(1, TimeUnit.MINUTES)) {
+                    logger.warn("Pipeline stages did not terminate in time");
+                }
+            }
         } catch (InterruptedException ex) {
             logger.error("Error while waiting for all the tasks to complete", ex);
         }
     }
 
+    private AbstractStorageManager selectStorageManager(CrawlingSessionContext context) {
+        var format = context.getStringConf("storage.format", "gzip");
+        return switch (format) {
+            case "gzip" -> gzipStorageManager;
+            case "warc" -> warcStorageManager;
+            case "segment" -> segmentStorageManager;
+            default -> throw new IllegalArgumentException("Unknown storage format: " + format);
+        };
+    }
+
     private void initializeComponents(CrawlingSessionContext context) {
+        storageManager = selectStorageManager(context);
         storageManager.initialize(context);
         linkFilter.initialize(context);
         contentRenderer.initialize(context);
@@ -180,19 +339,40 @@ public class DumbCrawler implements Runnable {
         this.sessionContext = new CrawlingSessionContext(jobId);
         initializeComponents(sessionContext);
 
-        executor = new ThreadPoolExecutor(sessionContext.getThreadCount(), sessionContext.getThreadCount(), 60L,
-                TimeUnit.SECONDS,
-                new LinkedBlockingQueue<Runnable>());
+        executor = FetchExecutor.create(sessionContext);
+        if (sessionContext.getBoolConf("pipeline.enabled", false)) {
+            pipeline = new CrawlingPipeline(sessionContext, this::storeResult);
+            executor.setPipeline(pipeline);
+        } else if (sessionContext.getBoolConf("storage.async.enabled", false)) {
+            storageWriter = new AsyncStorageWriter(sessionContext, storageManager);
+        }
         seeds = sessionContext.getSeeds();
         logger.info("Adding seeds: {}", seeds);
         // TODO: once this is started we should load counters in the context.
         urlStore = new URLStore(sessionContext);
+        hostScheduler = new HostScheduler(sessionContext);
+        urlCache = new UrlMetadataCache(sessionContext);
         Thread loopThread = new Thread(this, "main-thread");
         this.nextStatisticsPrint = System.currentTimeMillis() + 5000;
         this.stopped = false;
         loopThread.start();
     }
 
+    /**
+     * Store stage of the pipeline, the page is flushed before the task completes. A page that could not be written
+     * fails the task.
+     */
+    private void storeResult(CrawlingResult result) {
+        try {
+            var failures = storageManager.storeResults(List.of(result), sessionContext);
+            if (!failures.isEmpty()) {
+                throw failures.get(0).error();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
     public void printCounters(CrawlingSessionContext ctx) {
 
         var now = System.currentTimeMillis();
@@ -217,10 +397,23 @@ public class DumbCrawler implements Runnable {
         if (counters.isEmpty()) {
             message.append("No counters to display");
         }
-        var status = urlStore.getStatus();
+        var status = new TreeMap<>(urlStore.getStatus());
+        status.putAll(executor.getStatus());
+        if (pipeline != null) {
+            status.putAll(pipeline.getStatus());
+        }
+        if (storageWriter != null) {
+            status.putAll(storageWriter.getStatus());
+        }
+        status.putAll(hostScheduler.getStatus());
         for (var entry : status.entrySet()) {
             message.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
         }
+        var hostQueues = hostScheduler.getHostQueueDepths(10);
+        if (!hostQueues.isEmpty()) {
+            message.append("Host queues, queued [active/limit]:\n");
+            hostQueues.forEach(q -> message.append("  ").append(q).append("\n"));
+        }
         for (var entry : counters.entrySet()) {
             message.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
         }
@@ -251,42 +444,67 @@ public class DumbCrawler implements Runnable {
 
     private void scheduleNewTasks(CrawlingSessionContext sessionContext) {
         if (sessionContext.isStopRequested()) {
-            var active = executor.getActiveCount();
-            var queue = executor.getQueue();
-            if (!queue.isEmpty()) {
-                logger.info("Removing {} tasks from queue", queue.size());
-                queue.clear();
+            var cleared = executor.clearPending();
+            if (cleared > 0) {
+                logger.info("Removed {} tasks from queue", cleared);
             }
-            logger.debug("Stop requested: Waiting for {} active tasks", active);
-            if (active == 0) {
+            logger.debug("Stop requested: Waiting for {} running tasks", runningTasks.size());
+            if (runningTasks.isEmpty()) {
                 this.stopped = true;
             }
             return;
         }
-        int size = executor.getQueue().size();
-        int maxQueuedTasks = executor.getMaximumPoolSize() * 2;
-        int scheduleLimit = (int) Math.round(executor.getMaximumPoolSize() * 1.5);
-        if (size >= scheduleLimit) {
-            logger.debug("No tasks to add, current tasks {}", size);
-            return;
-        }
-
-        int toSchedule = maxQueuedTasks - size;
-        var urls = urlStore.getUnvisited(toSchedule);
-        urls = urls.stream().map(url -> {
-            final var tags = urlTagger.tagUrls(url.url());
-            return url.withTags(tags);
-        }).filter(task -> linkFilter.isURLAllowed(task, sessionContext)).toList();
-        if (urls.isEmpty() && runningTasks.isEmpty()) {
+        loadScheduledTasks(sessionContext);
+        if (hostScheduler.isEmpty() && runningTasks.isEmpty()) {
             logger.warn("No more urls to schedule and no threads are running.");
             sessionContext.end();
             stop();
             return;
         }
-        var newTasks = urls.stream().map(t -> new CrawlingTaskCallable(t, contentRenderer,
-                        contentValidator, sessionContext.getSessionDir()))
-                .map(c -> new TaskWrapper(c.getTask(), executor.submit(c))).toList();
-        runningTasks.addAll(newTasks);
+        // A full storage queue holds back new fetches until the writer catches up
+        while (executor.getFetchingCount() < executor.getCapacity() && !isStorageFull()) {
+            var next = hostScheduler.poll();
+            if (next.isEmpty()) {
+                break;
+            }
+            var task = next.get();
+            var callable = new CrawlingTaskCallable(task, contentRenderer, contentValidator,
+                    sessionContext.getSessionDir(), this::createLinkTasks);
+            runningTasks.put(executor.submit(callable), task);
+        }
+    }
+
+    private boolean isStorageFull() {
+        return storageWriter != null && storageWriter.isFull();
+    }
+
+    /**
+     * Moves queued urls from the store into the host scheduler. Hosts that already have enough queued tasks are
+     * skipped so the batch is spread across hosts.
+     */
+    private void loadScheduledTasks(CrawlingSessionContext sessionContext) {
+        var capacity = executor.getCapacity();
+        if (hostScheduler.size() >= capacity) {
+            return;
+        }
+        var now = System.currentTimeMillis();
+        if (nextStoreLoad > now && !runningTasks.isEmpty()) {
+            return;
+        }
+        int toLoad = capacity * 2 - hostScheduler.size();
+        // A host takes at most a share of the batch, the rest goes to other hosts when the store has them
+        int perHost = Math.max(1, Math.min(hostScheduler.getMaxQueuedPerHost(), toLoad / MIN_HOSTS_PER_LOAD));
+        var urls = urlStore.getUnvisited(toLoad, perHost, hostScheduler.getSaturatedHosts(MAX_EXCLUDED_HOSTS));
+        // When the store is running dry don't query it again on every completed task. A short batch where some host
+        // reached its share only means there are few hosts left.
+        var hostReachedShare = urls.stream().collect(Collectors.groupingBy(t -> Misc.getHost(t.url()), Collectors.counting()))
+                .values().stream().anyMatch(c -> c >= perHost);
+        nextStoreLoad = urls.size() < toLoad && !hostReachedShare ? now + TICK_INTERVAL : 0;
+        if (!urlTagger.isStoredTagsValid()) {
+            urls = urls.stream().map(url -> url.withTags(urlTagger.tagUrls(url.url()))).toList();
+        }
+        urls = urls.stream().filter(task -> linkFilter.isURLAllowed(task, sessionContext)).toList();
+        hostScheduler.addTasks(urls);
     }
 
     private CrawlingTask createTaskParams(String url, String... extraTags) {
@@ -299,14 +517,4 @@ public class DumbCrawler implements Runnable {
         return new CrawlingTask("", hash, url, allTags.toArray(new String[0]), 0, priority);
     }
 
-    private void sleep() {
-        try {
-            logger.trace("Sleeping...");
-            long sleepTime = 1000;
-            Thread.sleep(sleepTime);
-        } catch (InterruptedException ex) {
-            //Exception is ignored
-        }
-    }
-
 }
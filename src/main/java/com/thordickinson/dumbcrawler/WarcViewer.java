@@ -6,7 +6,6 @@ import org.netpreserve.jwarc.WarcResponse;
 
 import java.awt.*;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -97,11 +96,11 @@ public class WarcViewer {
      * @throws IOException If there is an error accessing the directory.
      */
     private static List<Path> getWarcFiles(Path directory) throws IOException {
-        // Recursively walk the directory and find all .warc files
+        // Recursively walk the directory and find all .warc and .warc.gz files
         try {
             return Files.walk(directory)
                     .filter(Files::isRegularFile)
-                    .filter(path -> path.toString().endsWith(".warc"))
+                    .filter(path -> path.toString().endsWith(".warc") || path.toString().endsWith(".warc.gz"))
                     .collect(Collectors.toList());
         } catch (IOException e) {
             System.err.println("Error accessing the directory.");
@@ -159,10 +158,11 @@ public class WarcViewer {
                     WarcRecord record = iterator.next();
                     if (currentIndex == urlIndex && record instanceof WarcResponse) {
                         WarcResponse response = (WarcResponse) record;
-                        String content = "";
+                        byte[] content;
                         try (var body = response.body()) {
                             try (var is = body.stream()) {
-                                content = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+                                // Pages are stored with their original charset, the bytes are saved untouched
+                                content = is.readAllBytes();
                             }
                         }
 
@@ -173,11 +173,11 @@ public class WarcViewer {
                         }
 
                         // Create the HTML file with the WARC file name and index
-                        String fileName = warcFilePath.getFileName().toString().replace(".warc", "") + "_" + urlIndex + ".html";
+                        String fileName = warcFilePath.getFileName().toString().replaceAll("\\.warc(\\.gz)?$", "") + "_" + urlIndex + ".html";
                         Path htmlFilePath = dataDir.resolve(fileName);
 
                         // Save the content to the file
-                        Files.write(htmlFilePath, content.getBytes(StandardCharsets.UTF_8));
+                        Files.write(htmlFilePath, content);
 
                         System.out.println("Saved content to: " + htmlFilePath.toAbsolutePath());
 
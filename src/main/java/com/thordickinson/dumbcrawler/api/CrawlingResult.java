@@ -1,11 +1,22 @@
 package com.thordickinson.dumbcrawler.api;
 
+import java.util.List;
 import java.util.Set;
 
 
+/**
+ * @param fetchedAt  time the page was received, before it was parsed
+ * @param validators values to keep for the next fetch of the url
+ * @param revisit    the page didn't change since the last fetch (304 response or same payload digest), it was not
+ *                   parsed and only has to be recorded as a revisit
+ */
 public record CrawlingResult(CrawlingTask task,
-                             String content,
+                             PageContent content,
                              Set<String> links,
+                             List<CrawlingTask> linkTasks,
                              long startedAt,
-                             long endedAt) {
-}
\ No newline at end of file
+                             long fetchedAt,
+                             long endedAt,
+                             PageValidators validators,
+                             boolean revisit) {
+}
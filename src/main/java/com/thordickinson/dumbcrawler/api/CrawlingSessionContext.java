@@ -6,6 +6,7 @@ import com.thordickinson.dumbcrawler.DumbCrawler;
 import com.thordickinson.dumbcrawler.util.JsonUtil;
 import com.thordickinson.dumbcrawler.util.LoggerConfig;
 import com.thordickinson.dumbcrawler.util.SQLiteConnection;
+import com.thordickinson.dumbcrawler.util.SQLiteProfile;
 import lombok.Getter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,6 +21,7 @@ import java.text.SimpleDateFormat;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import static com.thordickinson.dumbcrawler.util.Misc.getUserHome;
@@ -46,8 +48,8 @@ public class CrawlingSessionContext {
     private boolean stopRequested = false;
     @Getter
     private final long startedAt = System.currentTimeMillis();
-    private final Map<String, Serializable> counters = new HashMap<>();
-    private final Map<String, Serializable> variables = new HashMap<>();
+    private final Map<String, Serializable> counters = new ConcurrentHashMap<>();
+    private final Map<String, Serializable> variables = new ConcurrentHashMap<>();
     @Getter
     private final SQLiteConnection sqLiteConnection;
     private final Logger logger = LoggerFactory.getLogger(CrawlingSessionContext.class);
@@ -77,24 +79,36 @@ public class CrawlingSessionContext {
         if(!sessionDir.toFile().isDirectory() && !sessionDir.toFile().mkdirs()){
             throw new RuntimeException("Unable to create output dirs");
         }
-        sqLiteConnection = new SQLiteConnection(sessionDir);
+        sqLiteConnection = new SQLiteConnection(sessionDir, SQLiteProfile.fromConfig(jobConfiguration, "db"));
         initializeTables();
     }
 
     private void initializeTables(){
         sqLiteConnection.addTable("counters", Map.of("counter_name", "TEXT PRIMARY KEY", "counter_value", "INT DEFAULT 0"));
+        sqLiteConnection.addTable("properties", Map.of("name", "TEXT PRIMARY KEY", "value", "TEXT"));
         var counters = sqLiteConnection.query("SELECT counter_name, counter_value from counters");
         counters.forEach(c -> {
             this.counters.put(String.valueOf(c.get(0)), (int) c.get(1));
         });
     }
 
-    private void saveCounters(){
-        for(var entry : counters.entrySet()){
-            sqLiteConnection.update("INSERT INTO counters (counter_name, counter_value) VALUES (?, ?) " +
-                    "ON CONFLICT(counter_name) DO UPDATE SET counter_value = ?", entry.getKey(),
-                    entry.getValue(), entry.getValue());
-        }
+    /**
+     * Session properties are persisted values that must stay the same while the session is resumed.
+     */
+    public Optional<String> getProperty(String name) {
+        return sqLiteConnection.singleResult(String.class, "SELECT value FROM properties WHERE name = ?", name);
+    }
+
+    public void setProperty(String name, String value) {
+        sqLiteConnection.update("INSERT INTO properties (name, value) VALUES (?, ?) " +
+                "ON CONFLICT(name) DO UPDATE SET value = ?", List.of(name, value, value));
+    }
+
+    public void saveCounters(){
+        var rows = counters.entrySet().stream()
+                .map(e -> List.<Object>of(e.getKey(), e.getValue(), e.getValue())).toList();
+        sqLiteConnection.batchUpdate("INSERT INTO counters (counter_name, counter_value) VALUES (?, ?) " +
+                "ON CONFLICT(counter_name) DO UPDATE SET counter_value = ?", rows);
     }
 
     public Set<String> getSeeds() {
@@ -110,10 +124,6 @@ public class CrawlingSessionContext {
         return JsonUtil.get(jobConfiguration, "maxAttemptCount").map(Any::toInt).orElseGet(() -> 5);
     }
 
-    public void loopCompleted(){
-        saveCounters();
-    }
-
     public Optional<Any> getConfig(String path) {
         return JsonUtil.get(jobConfiguration, path);
     }
@@ -144,9 +154,7 @@ public class CrawlingSessionContext {
     }
 
     public void increaseCounter(String key, int amount) {
-        int count = (int) this.counters.getOrDefault(key, 0);
-        count += amount;
-        this.counters.put(key, count);
+        this.counters.merge(key, amount, (a, b) -> (int) a + (int) b);
     }
 
     public void setVariable(String key, Serializable value){
@@ -158,7 +166,11 @@ public class CrawlingSessionContext {
     }
 
     public void setCounter(String key, Serializable value) {
-        this.counters.put(key, value);
+        if (value == null) {
+            this.counters.remove(key);
+        } else {
+            this.counters.put(key, value);
+        }
     }
 
     public Map<String, Serializable> getCounters() {
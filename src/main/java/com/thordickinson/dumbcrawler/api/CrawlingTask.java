@@ -1,7 +1,16 @@
 package com.thordickinson.dumbcrawler.api;
 
-public record CrawlingTask(String taskId, String urlId, String url, String[] tags, int attempt, int priority) {
+/**
+ * @param validators values stored the last time the url was fetched, {@code null} for urls never fetched
+ */
+public record CrawlingTask(String taskId, UrlId urlId, String url, String[] tags, int attempt, int priority,
+                           PageValidators validators) {
+
+    public CrawlingTask(String taskId, UrlId urlId, String url, String[] tags, int attempt, int priority) {
+        this(taskId, urlId, url, tags, attempt, priority, null);
+    }
+
     public CrawlingTask withTags(String[] tags){
-        return new CrawlingTask(taskId,  urlId, url, tags, attempt, priority);
+        return new CrawlingTask(taskId,  urlId, url, tags, attempt, priority, validators);
     }
 }
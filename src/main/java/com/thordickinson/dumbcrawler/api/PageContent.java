@@ -0,0 +1,75 @@
+package com.thordickinson.dumbcrawler.api;
+
+import org.apache.commons.codec.binary.Base32;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Raw response of a fetched page. The body is kept as the bytes sent by the server so storage writes them as is,
+ * it's only decoded with the detected charset when the page has to be parsed.
+ */
+public record PageContent(int statusCode,
+                          Map<String, List<String>> headers,
+                          byte[] body,
+                          Charset charset) {
+
+    public PageContent {
+        headers = headers == null ? Collections.emptyMap() : headers;
+    }
+
+    /**
+     * Tells if the server answered a conditional request with 304, the page has no body then.
+     */
+    public boolean isNotModified() {
+        return statusCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+    }
+
+    /**
+     * SHA-1 of the body in the {@code sha1:BASE32} form WARC files use for {@code WARC-Payload-Digest}.
+     */
+    public String payloadDigest() {
+        return "sha1:" + new Base32().encodeAsString(DigestUtils.sha1(body));
+    }
+
+    public String text() {
+        return new String(body, charset);
+    }
+
+    public int length() {
+        return body.length;
+    }
+
+    /**
+     * First value of a header, names are compared ignoring case.
+     */
+    public Optional<String> header(String name) {
+        for (var entry : headers.entrySet()) {
+            if (name.equalsIgnoreCase(entry.getKey()) && !entry.getValue().isEmpty()) {
+                return Optional.ofNullable(entry.getValue().get(0));
+            }
+        }
+        return Optional.empty();
+    }
+
+    public Optional<String> contentType() {
+        return header("Content-Type");
+    }
+
+    /**
+     * Tells if the body only has whitespace, checked on the bytes so the page doesn't have to be decoded.
+     */
+    public boolean isBlank() {
+        for (byte b : body) {
+            if (b != ' ' && b != '\t' && b != '\n' && b != '\r' && b != '\f') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,32 @@
+package com.thordickinson.dumbcrawler.api;
+
+/**
+ * Values kept per url to tell if a page changed since it was last fetched: the {@code ETag} and
+ * {@code Last-Modified} headers, sent back as conditional request headers, and the WARC payload digest of the body.
+ */
+public record PageValidators(String etag, String lastModified, String payloadDigest) {
+
+    /**
+     * Validators of a fetched page. A 304 response has no body, it keeps the previous digest and the headers it
+     * doesn't send again.
+     */
+    public static PageValidators fromPage(PageContent page, PageValidators previous) {
+        if (page.isNotModified() && previous != null) {
+            return new PageValidators(page.header("ETag").orElse(previous.etag()),
+                    page.header("Last-Modified").orElse(previous.lastModified()), previous.payloadDigest());
+        }
+        return new PageValidators(page.header("ETag").orElse(null), page.header("Last-Modified").orElse(null),
+                page.isNotModified() ? null : page.payloadDigest());
+    }
+
+    public static PageValidators of(String etag, String lastModified, String payloadDigest) {
+        if (etag == null && lastModified == null && payloadDigest == null) {
+            return null;
+        }
+        return new PageValidators(etag, lastModified, payloadDigest);
+    }
+
+    public boolean isSamePayload(PageValidators other) {
+        return other != null && payloadDigest != null && payloadDigest.equals(other.payloadDigest());
+    }
+}
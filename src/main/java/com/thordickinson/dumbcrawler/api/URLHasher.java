@@ -1,15 +1,19 @@
 package com.thordickinson.dumbcrawler.api;
 
 import com.thordickinson.dumbcrawler.util.AbstractCrawlingComponent;
+import com.thordickinson.dumbcrawler.util.Murmur3;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.springframework.stereotype.Service;
 
+import java.util.Optional;
 import java.util.regex.Pattern;
 
 @Service
 public class URLHasher extends AbstractCrawlingComponent {
 
+    private static final String ALGORITHM_PROPERTY = "urlHasher.algorithm";
     private Pattern pattern = null;
+    private boolean murmur = false;
 
     public URLHasher() {
         super("urlHasher");
@@ -17,6 +21,7 @@ public class URLHasher extends AbstractCrawlingComponent {
 
     @Override
     public void initialize(CrawlingSessionContext context) {
+        murmur = "murmur3".equals(getAlgorithm(context));
         var configPattern = context.getStringConf("idExtractorPattern", null);
         if(configPattern == null) {
             logger.warn("No idExtractorPattern configured, will use default hasher.");
@@ -28,17 +33,38 @@ public class URLHasher extends AbstractCrawlingComponent {
         pattern = Pattern.compile(configPattern);
     }
 
-    public String hashUrl(String url) {
+    public UrlId hashUrl(String url) {
         if(pattern != null){
             final var matcher = pattern.matcher(url);
             if(matcher.matches()){
                 final var hash = matcher.group("id");
                 logger.debug("Getting url has from {} -> {}", hash, url);
-                return hash;
+                return UrlId.fromString(hash);
             }
         }
-        logger.debug("Not able to detect hash for url, returning md5: {}", url);
-        return DigestUtils.md5Hex(url);
+        logger.debug("Not able to detect hash for url, returning hash: {}", url);
+        return murmur ? Murmur3.hash128(url) : UrlId.fromBytes(DigestUtils.md5(url));
+    }
+
+    /**
+     * The algorithm is stored with the session, changing it on a resumed session would give every known url a new
+     * id. Sessions created before the setting existed used md5.
+     */
+    private String getAlgorithm(CrawlingSessionContext context) {
+        var configured = context.getStringConf("urlHasher.algorithm", "md5");
+        if (!configured.equals("md5") && !configured.equals("murmur3")) {
+            throw new IllegalArgumentException("Invalid urlHasher.algorithm: " + configured);
+        }
+        var stored = context.getProperty(ALGORITHM_PROPERTY);
+        if (stored.isEmpty()) {
+            var algorithm = context.isNewSession() ? configured : "md5";
+            context.setProperty(ALGORITHM_PROPERTY, algorithm);
+            stored = Optional.of(algorithm);
+        }
+        if (!stored.get().equals(configured)) {
+            logger.warn("Session urls are hashed with {}, ignoring configured algorithm {}", stored.get(), configured);
+        }
+        return stored.get();
     }
     
 }
@@ -0,0 +1,62 @@
+package com.thordickinson.dumbcrawler.api;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.nio.ByteBuffer;
+import java.util.HexFormat;
+
+/**
+ * 128 bit url identifier. Stored as a 16 byte BLOB and rendered as 32 hex chars, so ids created from an MD5 digest
+ * keep the same text form the previous {@code md5Hex} ids had.
+ */
+public record UrlId(long high, long low) {
+
+    public static final int SIZE = 16;
+
+    public static UrlId fromBytes(byte[] bytes) {
+        if (bytes.length != SIZE) {
+            throw new IllegalArgumentException("Invalid url id length: " + bytes.length);
+        }
+        var buffer = ByteBuffer.wrap(bytes);
+        return new UrlId(buffer.getLong(), buffer.getLong());
+    }
+
+    /**
+     * Parses the text form of an id. 32 hex char values are decoded as is, any other value (e.g. ids taken with
+     * the idExtractorPattern) is turned into the MD5 of its text.
+     */
+    public static UrlId fromString(String value) {
+        if (isHex(value)) {
+            return new UrlId(HexFormat.fromHexDigitsToLong(value, 0, 16), HexFormat.fromHexDigitsToLong(value, 16, 32));
+        }
+        return fromBytes(DigestUtils.md5(value));
+    }
+
+    private static boolean isHex(String value) {
+        if (value.length() != SIZE * 2) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (!HexFormat.isHexDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public byte[] toBytes() {
+        return ByteBuffer.allocate(SIZE).putLong(high).putLong(low).array();
+    }
+
+    /**
+     * 64 bit digest of the id for hash based structures.
+     */
+    public long longHash() {
+        return high ^ low;
+    }
+
+    @Override
+    public String toString() {
+        return "%016x%016x".formatted(high, low);
+    }
+}
@@ -1,10 +1,15 @@
 package com.thordickinson.dumbcrawler.api;
 
+import com.jsoniter.any.Any;
+import com.thordickinson.dumbcrawler.expression.TaggingEngine;
 import com.thordickinson.dumbcrawler.expression.URLExpressionEvaluator;
 import com.thordickinson.dumbcrawler.util.AbstractCrawlingComponent;
+import lombok.Getter;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -16,32 +21,57 @@ public class UrlTagger extends AbstractCrawlingComponent {
 
     public static String OTHER_TAG = "other";
 
-    private Map<String, String> tagExpressionMap = new HashMap<>();
-    private final URLExpressionEvaluator expressionEvaluator = new URLExpressionEvaluator() ;
+    private static final String FINGERPRINT_PROPERTY = "tagger.fingerprint";
+    private TaggingEngine taggingEngine = TaggingEngine.compile(Map.of());
+    /**
+     * True when the tags stored with the urls were assigned with the current tagger configuration, they can be used
+     * without tagging the url again.
+     */
+    @Getter
+    private boolean storedTagsValid = false;
 
     public UrlTagger() {
         super("urlTagger");
     }
     @Override
     protected void loadConfigurations(CrawlingSessionContext context) {
+        storedTagsValid = checkFingerprint(context);
         var taggerConfig = context.getConfig("tagger");
         if(taggerConfig.isEmpty()){
             logger.warn("No URL tagger configuration found");
             return;
         }
         var config = taggerConfig.get();
+        var tagExpressionMap = new LinkedHashMap<String, String>();
         config.asMap().forEach((key, value) -> tagExpressionMap.put(key, value.toString()));
         if(tagExpressionMap.containsKey(OTHER_TAG)){
             logger.warn("{} is a reserved tag, tagging will be ignored for this tag", OTHER_TAG);
             tagExpressionMap.remove(OTHER_TAG);
         }
+        taggingEngine = TaggingEngine.compile(tagExpressionMap);
+    }
+
+    /**
+     * The fingerprint of the tagger configuration is saved when the session is created, a resumed session trusts its
+     * stored tags only while the configuration is the same. Sessions created before the fingerprint existed are
+     * always tagged again.
+     */
+    private boolean checkFingerprint(CrawlingSessionContext context) {
+        var fingerprint = DigestUtils.md5Hex(context.getConfig("tagger").map(Any::toString).orElse(""));
+        var stored = context.getProperty(FINGERPRINT_PROPERTY);
+        if (stored.isEmpty() && context.isNewSession()) {
+            context.setProperty(FINGERPRINT_PROPERTY, fingerprint);
+            return true;
+        }
+        var valid = stored.map(fingerprint::equals).orElse(false);
+        if (!valid) {
+            logger.warn("Tagger configuration changed since the session was created, queued urls will be tagged again");
+        }
+        return valid;
     }
 
     public String[] tagUrls(String url) {
-        var tags = tagExpressionMap.entrySet().stream()
-               .filter(e -> expressionEvaluator.evaluateBoolean(e.getValue(), url))
-               .map(Map.Entry::getKey)
-               .toArray(String[]::new);
+        var tags = StringUtils.isBlank(url) ? new String[0] : taggingEngine.tag(url).toArray(String[]::new);
         final var resolvedTags = tags.length != 0? tags : new String[]{ OTHER_TAG };
         logger.debug("Tagging url: {}, {}", url, resolvedTags);
         return resolvedTags;
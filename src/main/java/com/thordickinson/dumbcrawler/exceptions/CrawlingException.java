@@ -8,13 +8,23 @@ public class CrawlingException extends RuntimeException {
     private final CrawlingTask task;
     private final String errorCode;
     private final boolean shouldRetry;
+    /**
+     * Milliseconds the server asked to wait before the next request with a {@code Retry-After} header, 0 if it
+     * didn't.
+     */
+    private final long retryAfter;
 
 
     public CrawlingException(CrawlingTask task, String errorCode, String message, boolean shouldRetry, Throwable cause){
+        this(task, errorCode, message, shouldRetry, 0, cause);
+    }
+
+    public CrawlingException(CrawlingTask task, String errorCode, String message, boolean shouldRetry, long retryAfter, Throwable cause){
         super(message, cause);
         this.task = task;
         this.errorCode = errorCode;
         this.shouldRetry = shouldRetry;
+        this.retryAfter = retryAfter;
     }
 
     public CrawlingException(CrawlingTask task, String errorCode, String message, boolean shouldRetry){
@@ -0,0 +1,12 @@
+package com.thordickinson.dumbcrawler.expression;
+
+import java.util.Map;
+
+/**
+ * A boolean expression parsed once and evaluated many times against different variables.
+ * @see ExpressionCompiler
+ */
+public interface CompiledExpression {
+
+    boolean evaluate(Map<String, Object> variables);
+}
@@ -0,0 +1,267 @@
+package com.thordickinson.dumbcrawler.expression;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Compiles boolean url expressions into a tree that is evaluated without the expression parser. Supports the
+ * documented subset of the language: {@code and}, {@code or}, {@code not}, parenthesis, the url variables, string
+ * literals and the {@code matches}, {@code isResource} and {@code extract} functions. Any other expression is
+ * evaluated by the {@link ThreadLocalEvaluator} of the calling thread.
+ * Compiled expressions are cached by their text, regexes given as literals are compiled with the expression.
+ */
+public class ExpressionCompiler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExpressionCompiler.class);
+    private static final Set<String> VARIABLES = Set.of("url", "protocol", "host", "path", "port", "query",
+            "fragment", "contentType");
+    private static final Map<String, CompiledExpression> cache = new ConcurrentHashMap<>();
+
+    private final List<String> tokens;
+    private final TaggingEngine.Terms terms;
+    private int position = 0;
+
+    private ExpressionCompiler(List<String> tokens, TaggingEngine.Terms terms) {
+        this.tokens = tokens;
+        this.terms = terms;
+    }
+
+    public static CompiledExpression compile(String expression) {
+        return cache.computeIfAbsent(expression, e -> doCompile(e, null));
+    }
+
+    /**
+     * Compiles an expression of a {@link TaggingEngine}, {@code matches} over a url variable with a literal regex
+     * becomes one of its {@code terms} so it is evaluated once per url even when several tags use it.
+     */
+    static CompiledExpression compile(String expression, TaggingEngine.Terms terms) {
+        return doCompile(expression, terms);
+    }
+
+    private static CompiledExpression doCompile(String expression, TaggingEngine.Terms terms) {
+        try {
+            var compiler = new ExpressionCompiler(tokenize(expression), terms);
+            var compiled = compiler.parseOr();
+            if (compiler.position != compiler.tokens.size()) {
+                throw new UnsupportedExpressionException("Unexpected token: " + compiler.peek());
+            }
+            return compiled;
+        } catch (UnsupportedExpressionException ex) {
+            logger.debug("Expression will be evaluated by the parser [{}]: {}", ex.getMessage(), expression);
+            return new ParsedExpression(expression);
+        }
+    }
+
+    /**
+     * Expression the compiler doesn't support, evaluated by the parser every time.
+     */
+    record ParsedExpression(String expression) implements CompiledExpression {
+        @Override
+        public boolean evaluate(Map<String, Object> variables) {
+            return ThreadLocalEvaluator.getThreadEvaluator()
+                    .evaluateAs(Boolean.class, expression, variables).orElse(Boolean.FALSE);
+        }
+    }
+
+    private interface StringNode {
+        String value(Map<String, Object> variables);
+    }
+
+    private record LiteralNode(String literal) implements StringNode {
+        @Override
+        public String value(Map<String, Object> variables) {
+            return literal;
+        }
+    }
+
+    private record VariableNode(String name) implements StringNode {
+        @Override
+        public String value(Map<String, Object> variables) {
+            var value = variables.get(name);
+            return value == null ? null : value.toString();
+        }
+    }
+
+    private static class UnsupportedExpressionException extends RuntimeException {
+        UnsupportedExpressionException(String message) {
+            super(message);
+        }
+    }
+
+    private CompiledExpression parseOr() {
+        var left = parseAnd();
+        while (acceptKeyword("or")) {
+            var l = left;
+            var r = parseAnd();
+            left = variables -> l.evaluate(variables) || r.evaluate(variables);
+        }
+        return left;
+    }
+
+    private CompiledExpression parseAnd() {
+        var left = parseNot();
+        while (acceptKeyword("and")) {
+            var l = left;
+            var r = parseNot();
+            left = variables -> l.evaluate(variables) && r.evaluate(variables);
+        }
+        return left;
+    }
+
+    private CompiledExpression parseNot() {
+        if (acceptKeyword("not")) {
+            var operand = parseNot();
+            return variables -> !operand.evaluate(variables);
+        }
+        return parseBoolean();
+    }
+
+    private CompiledExpression parseBoolean() {
+        var token = next();
+        if (token.equals("(")) {
+            var inner = parseOr();
+            expect(")");
+            return inner;
+        }
+        if (token.equalsIgnoreCase("true")) {
+            return variables -> true;
+        }
+        if (token.equalsIgnoreCase("false")) {
+            return variables -> false;
+        }
+        var functions = ExpressionFunctions.instance;
+        if (token.equalsIgnoreCase("matches")) {
+            var args = parseArguments(2);
+            var value = args.get(0);
+            var regex = args.get(1);
+            if (regex instanceof LiteralNode literal) {
+                var pattern = compilePattern(literal.literal());
+                if (terms != null && value instanceof VariableNode variable) {
+                    var term = terms.add(variable.name(), pattern);
+                    return variables -> ((TaggingEngine.UrlVariables) variables).test(term);
+                }
+                return variables -> functions.matches(value.value(variables), pattern);
+            }
+            return variables -> functions.matches(value.value(variables), regex.value(variables));
+        }
+        if (token.equalsIgnoreCase("isResource")) {
+            var path = parseArguments(1).getFirst();
+            return variables -> functions.isResource(path.value(variables));
+        }
+        throw new UnsupportedExpressionException("Not a boolean term: " + token);
+    }
+
+    private StringNode parseString() {
+        var token = next();
+        if (isLiteral(token)) {
+            return new LiteralNode(token.substring(1, token.length() - 1));
+        }
+        if (token.equalsIgnoreCase("extract")) {
+            var args = parseArguments(2);
+            var value = args.get(0);
+            var regex = args.get(1);
+            var functions = ExpressionFunctions.instance;
+            if (regex instanceof LiteralNode literal) {
+                var pattern = compilePattern(literal.literal());
+                return variables -> functions.extract(value.value(variables), pattern);
+            }
+            return variables -> functions.extract(value.value(variables), regex.value(variables));
+        }
+        if (VARIABLES.contains(token)) {
+            return new VariableNode(token);
+        }
+        throw new UnsupportedExpressionException("Not a string term: " + token);
+    }
+
+    private static Pattern compilePattern(String regex) {
+        try {
+            return Pattern.compile(regex);
+        } catch (PatternSyntaxException ex) {
+            // Invalid regexes are reported by the parser when the expression is evaluated
+            throw new UnsupportedExpressionException("Invalid regex: " + regex);
+        }
+    }
+
+    private List<StringNode> parseArguments(int count) {
+        expect("(");
+        var args = new ArrayList<StringNode>(count);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                expect(",");
+            }
+            args.add(parseString());
+        }
+        expect(")");
+        return args;
+    }
+
+    private boolean acceptKeyword(String keyword) {
+        if (position < tokens.size() && tokens.get(position).equalsIgnoreCase(keyword)) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String token) {
+        var actual = next();
+        if (!actual.equals(token)) {
+            throw new UnsupportedExpressionException("Expected " + token + " but was " + actual);
+        }
+    }
+
+    private String peek() {
+        return position < tokens.size() ? tokens.get(position) : "<end>";
+    }
+
+    private String next() {
+        if (position >= tokens.size()) {
+            throw new UnsupportedExpressionException("Unexpected end of expression");
+        }
+        return tokens.get(position++);
+    }
+
+    private static boolean isLiteral(String token) {
+        return token.length() >= 2 && (token.charAt(0) == '\'' || token.charAt(0) == '"');
+    }
+
+    private static List<String> tokenize(String expression) {
+        var tokens = new ArrayList<String>();
+        var i = 0;
+        while (i < expression.length()) {
+            var c = expression.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(' || c == ')' || c == ',') {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '\'' || c == '"') {
+                var end = expression.indexOf(c, i + 1);
+                if (end < 0 || expression.charAt(end - 1) == '\\') {
+                    // Escaped quotes are left to the parser
+                    throw new UnsupportedExpressionException("Unsupported string literal");
+                }
+                tokens.add(expression.substring(i, end + 1));
+                i = end + 1;
+            } else if (Character.isLetter(c) || c == '_') {
+                var start = i;
+                while (i < expression.length() && (Character.isLetterOrDigit(expression.charAt(i))
+                        || expression.charAt(i) == '_')) {
+                    i++;
+                }
+                tokens.add(expression.substring(start, i));
+            } else {
+                throw new UnsupportedExpressionException("Unsupported character: " + c);
+            }
+        }
+        return tokens;
+    }
+}
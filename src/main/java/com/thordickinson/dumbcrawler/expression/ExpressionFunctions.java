@@ -3,8 +3,10 @@ package com.thordickinson.dumbcrawler.expression;
 import com.creativewidgetworks.expressionparser.*;
 import org.jsoup.nodes.Document;
 
+import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 public class ExpressionFunctions implements ExpressionConstants{
@@ -16,6 +18,9 @@ public class ExpressionFunctions implements ExpressionConstants{
     private final Pattern RESOURCE_PATTERN = Pattern
             .compile(".*\\.(%s)$".formatted(String.join("|", COMMON_EXTENSIONS)));
 
+    private static final int PATTERN_CACHE_SIZE = 1024;
+    private final Map<String, Pattern> patternCache = new ConcurrentHashMap<>();
+
     public static final ExpressionFunctions instance = new ExpressionFunctions();
 
     private ExpressionFunctions(){
@@ -32,9 +37,19 @@ public class ExpressionFunctions implements ExpressionConstants{
     public Value _matches(Token function, Stack<Token> stack) {
         String regex = ((Token) stack.pop()).asString();
         String value = ((Token) stack.pop()).asString();
+        return matches(value, regex) ? TRUE : FALSE;
+    }
+
+    public boolean matches(String value, String regex) {
         if (value == null || regex == null)
-            return FALSE;
-        return value.matches(regex) ? TRUE : FALSE;
+            return false;
+        return matches(value, getPattern(regex));
+    }
+
+    public boolean matches(String value, Pattern pattern) {
+        if (value == null)
+            return false;
+        return pattern.matcher(value).matches();
     }
 
     /**
@@ -45,22 +60,51 @@ public class ExpressionFunctions implements ExpressionConstants{
      */
     public Value _isResource(Token funciton, Stack<Token> stack) {
         String path = ((Token) stack.pop()).asString();
+        return isResource(path) ? TRUE : FALSE;
+    }
+
+    public boolean isResource(String path) {
         if (path == null)
-            return FALSE;
-        var matcher = RESOURCE_PATTERN.matcher(path);
-        return matcher.matches() ? TRUE : FALSE;
+            return false;
+        return RESOURCE_PATTERN.matcher(path).matches();
     }
 
     public Value _extract(Token function, Stack<Token> stack) {
         String regex = ((Token) stack.pop()).asString();
         String value = ((Token) stack.pop()).asString();
+        var extracted = extract(value, regex);
+        return extracted == null ? NULL : new Value().setValue(extracted);
+    }
+
+    public String extract(String value, String regex) {
         if (value == null || regex == null)
-            return NULL;
-        var pattern = Pattern.compile(regex);
+            return null;
+        return extract(value, getPattern(regex));
+    }
+
+    public String extract(String value, Pattern pattern) {
+        if (value == null)
+            return null;
         var matcher = pattern.matcher(value);
         if (!matcher.matches())
-            return NULL;
-        return new Value().setValue(matcher.group("value"));
+            return null;
+        return matcher.group("value");
+    }
+
+    /**
+     * Regexes that are not literals in the expression (and every regex evaluated by the parser) are compiled once
+     * and kept here. The cache is cleared when it gets full, expressions rarely build more than a few regexes.
+     */
+    private Pattern getPattern(String regex) {
+        var pattern = patternCache.get(regex);
+        if (pattern == null) {
+            if (patternCache.size() >= PATTERN_CACHE_SIZE) {
+                patternCache.clear();
+            }
+            pattern = Pattern.compile(regex);
+            patternCache.put(regex, pattern);
+        }
+        return pattern;
     }
 
     public Value _containsElement(Token function, Stack<Token> stack) {
@@ -0,0 +1,240 @@
+package com.thordickinson.dumbcrawler.expression;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates the expressions of every tag against a url that is parsed once. {@code matches} over a url variable
+ * with a literal regex is compiled into a term shared by all the tags, terms are evaluated at most once per url and
+ * a term whose regex requires a literal substring is rejected with {@link String#contains} before running the
+ * regex, so adding tags that test the same parts of the url costs little.
+ */
+public class TaggingEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaggingEngine.class);
+    private static final byte FALSE_RESULT = 1;
+    private static final byte TRUE_RESULT = 2;
+
+    private final List<Term> terms;
+    private final Map<String, CompiledExpression> tags;
+
+    private TaggingEngine(List<Term> terms, Map<String, CompiledExpression> tags) {
+        this.terms = terms;
+        this.tags = tags;
+    }
+
+    /**
+     * Compiles the expression of every tag, the terms they share are collected first and the engine is built once
+     * all of them are known.
+     */
+    public static TaggingEngine compile(Map<String, String> tagExpressions) {
+        var terms = new Terms();
+        var tags = new LinkedHashMap<String, CompiledExpression>();
+        tagExpressions.forEach((tag, expression) -> tags.put(tag, ExpressionCompiler.compile(expression, terms)));
+        logger.info("{} tag expressions compiled, {} regex terms", tags.size(), terms.terms.size());
+        return new TaggingEngine(List.copyOf(terms.terms), tags);
+    }
+
+    /**
+     * Terms added while the tag expressions are compiled, the same variable and regex get the same term.
+     */
+    static class Terms {
+        private final List<Term> terms = new ArrayList<>();
+        private final Map<String, Integer> termIndex = new HashMap<>();
+
+        int add(String variable, Pattern pattern) {
+            return termIndex.computeIfAbsent(variable + '\0' + pattern.pattern(), k -> {
+                terms.add(new Term(variable, pattern, requiredLiteral(pattern.pattern())));
+                return terms.size() - 1;
+            });
+        }
+    }
+
+    /**
+     * @return the tags whose expression matches the url, empty when the url cannot be parsed.
+     */
+    public List<String> tag(String url) {
+        if (tags.isEmpty()) {
+            return List.of();
+        }
+        var variables = new UrlVariables(terms);
+        if (!URLExpressionEvaluator.putVariablesFromUrl(url, null, variables)) {
+            return List.of();
+        }
+        var result = new ArrayList<String>(2);
+        tags.forEach((tag, expression) -> {
+            if (expression.evaluate(variables)) {
+                result.add(tag);
+            }
+        });
+        return result;
+    }
+
+    private record Term(String variable, Pattern pattern, String literal) {
+        boolean test(Map<String, Object> variables) {
+            var value = variables.get(variable);
+            if (value == null) {
+                return false;
+            }
+            var text = value.toString();
+            if (literal != null && !text.contains(literal)) {
+                return false;
+            }
+            return pattern.matcher(text).matches();
+        }
+    }
+
+    /**
+     * Url variables plus the results of the terms already evaluated for the url.
+     */
+    static class UrlVariables extends HashMap<String, Object> {
+        private final List<Term> terms;
+        private final byte[] results;
+
+        UrlVariables(List<Term> terms) {
+            this.terms = terms;
+            this.results = new byte[terms.size()];
+        }
+
+        boolean test(int term) {
+            var result = results[term];
+            if (result == 0) {
+                result = terms.get(term).test(this) ? TRUE_RESULT : FALSE_RESULT;
+                results[term] = result;
+            }
+            return result == TRUE_RESULT;
+        }
+    }
+
+    /**
+     * Finds the longest literal every match of the regex has to contain. The analysis is conservative: groups,
+     * classes, escapes like {@code \d} or {@code \x2F} and optional chars end the literal, and regexes with top
+     * level alternations, inline flags or back references have none.
+     */
+    static String requiredLiteral(String regex) {
+        var best = "";
+        var current = new StringBuilder();
+        var depth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            var c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= regex.length() || regex.charAt(i + 1) == 'Q') {
+                    return null;
+                }
+                var escaped = regex.charAt(i + 1);
+                if (depth == 0 && !Character.isLetterOrDigit(escaped)) {
+                    current.append(escaped);
+                    i++;
+                } else {
+                    i = skipEscape(regex, i);
+                    if (i < 0) {
+                        return null;
+                    }
+                    best = longest(best, current);
+                }
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+                if (i < 0) {
+                    return null;
+                }
+                best = longest(best, current);
+            } else if (c == '(') {
+                if (regex.startsWith("(?", i) && i + 2 < regex.length() && "idmsuxU-".indexOf(regex.charAt(i + 2)) >= 0) {
+                    return null;
+                }
+                depth++;
+                best = longest(best, current);
+            } else if (c == ')') {
+                depth--;
+                best = longest(best, current);
+            } else if (c == '|' && depth == 0) {
+                return null;
+            } else if (depth > 0) {
+                // Group content is ignored, the group may be optional or an alternation
+            } else if (c == '*' || c == '?' || c == '{') {
+                if (!current.isEmpty()) {
+                    current.setLength(current.length() - 1);
+                }
+                best = longest(best, current);
+                if (c == '{') {
+                    var end = regex.indexOf('}', i);
+                    i = end < 0 ? i : end;
+                }
+            } else if (c == '+' || c == '.' || c == '^' || c == '$') {
+                best = longest(best, current);
+            } else {
+                current.append(c);
+            }
+        }
+        best = longest(best, current);
+        return best.isEmpty() ? null : best;
+    }
+
+    private static String longest(String best, StringBuilder current) {
+        var result = current.length() > best.length() ? current.toString() : best;
+        current.setLength(0);
+        return result;
+    }
+
+    /**
+     * Index of the last char of the escape sequence that starts at {@code start}, or -1 when it can't be told
+     * apart from the chars that follow it (back references) or is not closed.
+     */
+    private static int skipEscape(String regex, int start) {
+        var i = start + 1;
+        var escaped = regex.charAt(i);
+        return switch (escaped) {
+            case 'x' -> i + 1 < regex.length() && regex.charAt(i + 1) == '{' ? closing(regex, i + 1, '}') : fixed(regex, i, 2);
+            case 'u' -> fixed(regex, i, 4);
+            case 'c' -> fixed(regex, i, 1);
+            case '0' -> {
+                var end = i;
+                while (end - i < 3 && end + 1 < regex.length() && regex.charAt(end + 1) >= '0' && regex.charAt(end + 1) <= '7') {
+                    end++;
+                }
+                yield end;
+            }
+            case 'k' -> i + 1 < regex.length() && regex.charAt(i + 1) == '<' ? closing(regex, i + 1, '>') : -1;
+            case 'p', 'P', 'N' -> i + 1 < regex.length() && regex.charAt(i + 1) == '{' ? closing(regex, i + 1, '}') :
+                    escaped == 'N' ? -1 : fixed(regex, i, 1);
+            default -> escaped >= '1' && escaped <= '9' ? -1 : i;
+        };
+    }
+
+    private static int fixed(String regex, int letter, int length) {
+        return letter + length < regex.length() ? letter + length : -1;
+    }
+
+    private static int closing(String regex, int open, char close) {
+        return regex.indexOf(close, open);
+    }
+
+    private static int skipClass(String regex, int start) {
+        var i = start + 1;
+        if (i < regex.length() && regex.charAt(i) == '^') {
+            i++;
+        }
+        if (i < regex.length() && regex.charAt(i) == ']') {
+            i++;
+        }
+        var depth = 1;
+        for (; i < regex.length(); i++) {
+            var c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
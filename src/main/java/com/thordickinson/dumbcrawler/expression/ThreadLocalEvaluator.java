@@ -20,7 +20,7 @@ public class ThreadLocalEvaluator implements ExpressionConstants {
             ValueType.STRING, Set.of(String.class),
             ValueType.UNDEFINED, Set.of(Void.class));
 
-    private static ThreadLocal<ThreadLocalEvaluator> evaluators = new ThreadLocal<>();
+    private static final ThreadLocal<ThreadLocalEvaluator> evaluators = ThreadLocal.withInitial(ThreadLocalEvaluator::new);
 
     private final Parser parser;
 
@@ -29,11 +29,7 @@ public class ThreadLocalEvaluator implements ExpressionConstants {
     }
 
     public static ThreadLocalEvaluator getThreadEvaluator() {
-        var evaluator = evaluators.get();
-        if (evaluator == null) {
-            evaluator = new ThreadLocalEvaluator();
-        }
-        return evaluator;
+        return evaluators.get();
     }
 
     private Parser createParser() {
@@ -19,7 +19,22 @@ public class URLExpressionEvaluator {
     }
 
     public boolean evaluateBoolean(String expression, String uri, Optional<String> contentType) {
-        return evaluateAs(Boolean.class, expression, uri, contentType).orElse(Boolean.FALSE);
+        if (StringUtils.isBlank(expression)) return false;
+        return evaluateBoolean(ExpressionCompiler.compile(expression), uri, contentType);
+    }
+
+    public boolean evaluateBoolean(CompiledExpression expression, String uri) {
+        return evaluateBoolean(expression, uri, Optional.empty());
+    }
+
+    public boolean evaluateBoolean(CompiledExpression expression, String uri, Optional<String> contentType) {
+        if (StringUtils.isBlank(uri)) return false;
+        try {
+            return getVariablesFromUrl(uri, contentType).map(expression::evaluate).orElse(Boolean.FALSE);
+        } catch (IllegalArgumentException ex) {
+            logger.warn("Error parsing url: " + uri, ex);
+            return false;
+        }
     }
 
     public <T> Optional<T> evaluateAs(Class<T> expectedType, String expression, String url) {
@@ -31,12 +46,23 @@ public class URLExpressionEvaluator {
     }
 
     public static Optional<Map<String, Object>> getVariablesFromUrl(String url, Optional<String> contentType) {
+        var variables = new HashMap<String, Object>();
+        if (!putVariablesFromUrl(url, contentType.orElse(null), variables)) {
+            return Optional.empty();
+        }
+        return Optional.of(variables);
+    }
+
+    /**
+     * Parses the url and puts its parts in {@code variables}.
+     * @return false if the url cannot be parsed.
+     */
+    public static boolean putVariablesFromUrl(String url, String contentType, Map<String, Object> variables) {
         var parsed = HttpUrl.parse(url);
         if (parsed == null) {
             logger.warn("Error parsing url: {}", url);
-            return Optional.empty();
+            return false;
         }
-        var variables = new HashMap<String, Object>();
         variables.put("url", url);
         variables.put("protocol", parsed.scheme());
         variables.put("host", parsed.host());
@@ -44,8 +70,8 @@ public class URLExpressionEvaluator {
         variables.put("port", new BigDecimal(parsed.port()));
         variables.put("query", parsed.query());
         variables.put("fragment", parsed.fragment());
-        variables.put("contentType", contentType.orElse(null));
-        return Optional.of(variables);
+        variables.put("contentType", contentType);
+        return true;
     }
 
 
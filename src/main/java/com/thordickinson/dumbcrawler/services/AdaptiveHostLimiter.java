@@ -0,0 +1,97 @@
+package com.thordickinson.dumbcrawler.services;
+
+import com.jsoniter.any.Any;
+import com.thordickinson.dumbcrawler.api.CrawlingSessionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Additive increase / multiplicative decrease limit of the tasks in flight per host. While a host answers within
+ * {@code latencyTolerance} times its usual latency and uses its whole limit, the limit grows by one every
+ * {@code limit} responses; timeouts, 429 and 5xx answers or a latency jump cut it by {@code backoffRatio}, at most
+ * once per response time so the requests already in flight don't cut it again.
+ * Only used from the scheduling thread.
+ */
+public class AdaptiveHostLimiter {
+
+    private static class HostLimit {
+        private double limit;
+        private double baselineLatency = -1;
+        private long lastDecreaseAt = 0;
+
+        private HostLimit(double limit) {
+            this.limit = limit;
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveHostLimiter.class);
+    private static final double BASELINE_WEIGHT = 0.05;
+
+    private final double initialLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+    private final Map<String, HostLimit> limits;
+
+    public AdaptiveHostLimiter(CrawlingSessionContext context, int maxConnectionsPerHost) {
+        this.initialLimit = context.getIntConf("politeness.adaptive.initialLimit", 2);
+        this.maxLimit = Math.min(maxConnectionsPerHost, context.getIntConf("politeness.adaptive.maxLimit", 32));
+        this.backoffRatio = context.getConfig("politeness.adaptive.backoffRatio").map(Any::toDouble).orElse(0.5);
+        this.latencyTolerance = context.getConfig("politeness.adaptive.latencyTolerance").map(Any::toDouble).orElse(2.0);
+        var maxTrackedHosts = context.getIntConf("politeness.adaptive.maxTrackedHosts", 10_000);
+        this.limits = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, HostLimit> eldest) {
+                return size() > maxTrackedHosts;
+            }
+        };
+        logger.info("Adaptive host limits: initial {}, max {}, backoff ratio {}, latency tolerance {}",
+                initialLimit, maxLimit, backoffRatio, latencyTolerance);
+    }
+
+    private HostLimit getHostLimit(String host) {
+        return limits.computeIfAbsent(host, h -> new HostLimit(Math.min(initialLimit, maxLimit)));
+    }
+
+    public int getLimit(String host) {
+        var hostLimit = limits.get(host);
+        return (int) (hostLimit == null ? Math.min(initialLimit, maxLimit) : hostLimit.limit);
+    }
+
+    /**
+     * @param inFlight tasks of the host that were in flight when this one completed, this one included
+     */
+    public void onSuccess(String host, long latency, int inFlight) {
+        var hostLimit = getHostLimit(host);
+        if (hostLimit.baselineLatency < 0) {
+            hostLimit.baselineLatency = latency;
+            return;
+        }
+        var threshold = hostLimit.baselineLatency * latencyTolerance;
+        // Slow responses only move the baseline up to the threshold, a congested host doesn't become the norm
+        hostLimit.baselineLatency += BASELINE_WEIGHT * (Math.min(latency, threshold) - hostLimit.baselineLatency);
+        if (latency > threshold) {
+            decrease(host, hostLimit, latency);
+        } else if (inFlight >= (int) hostLimit.limit) {
+            hostLimit.limit = Math.min(maxLimit, hostLimit.limit + 1 / hostLimit.limit);
+        }
+    }
+
+    public void onOverload(String host) {
+        var hostLimit = getHostLimit(host);
+        decrease(host, hostLimit, (long) Math.max(0, hostLimit.baselineLatency));
+    }
+
+    private void decrease(String host, HostLimit hostLimit, long window) {
+        var now = System.currentTimeMillis();
+        if (now - hostLimit.lastDecreaseAt < window) {
+            return;
+        }
+        hostLimit.lastDecreaseAt = now;
+        hostLimit.limit = Math.max(1, hostLimit.limit * backoffRatio);
+        logger.debug("Limit of {} decreased to {}", host, (int) hostLimit.limit);
+    }
+}
@@ -9,6 +9,7 @@ import com.thordickinson.dumbcrawler.util.CollectionUtils;
 import org.jsoup.nodes.Document;
 import org.springframework.stereotype.Service;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
 
@@ -37,6 +38,17 @@ public class ContentValidator extends AbstractCrawlingComponent {
         }
     }
 
+    /**
+     * Tells if the page of the task has to be parsed to be validated, the links are extracted without a DOM so
+     * pages without validation selectors are never fully parsed.
+     */
+    public boolean needsDocument(CrawlingTask task){
+        if(tagValidators.isEmpty()){
+            return false;
+        }
+        return Arrays.stream(task.tags()).anyMatch(tagValidators::containsKey);
+    }
+
     public void validatePageContent(CrawlingTask task, Document parsedHtml){
         if(tagValidators.isEmpty()){
             return;
@@ -2,10 +2,11 @@ package com.thordickinson.dumbcrawler.services;
 
 import com.thordickinson.dumbcrawler.api.CrawlingResult;
 import com.thordickinson.dumbcrawler.api.CrawlingTask;
+import com.thordickinson.dumbcrawler.api.PageContent;
+import com.thordickinson.dumbcrawler.api.PageValidators;
 import com.thordickinson.dumbcrawler.exceptions.CrawlingException;
 import com.thordickinson.dumbcrawler.services.renderer.ContentRenderer;
 import lombok.Getter;
-import org.apache.commons.lang3.StringUtils;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.slf4j.Logger;
@@ -15,10 +16,11 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.stream.Collectors;
+import java.util.function.Function;
 
 public class CrawlingTaskCallable implements Callable<CrawlingResult> {
 
@@ -29,35 +31,67 @@ public class CrawlingTaskCallable implements Callable<CrawlingResult> {
     private final ContentRenderer htmlRenderer;
     private final ContentValidator contentValidator;
     private final Path sessionFolder;
+    /**
+     * Turns the links of the page into the tasks to add to the store (tagging, hashing, prioritization and
+     * filtering), it runs on the worker so the main thread only has to insert them.
+     */
+    private final Function<Collection<String>, List<CrawlingTask>> linkProcessor;
 
-    public CrawlingTaskCallable(CrawlingTask task, ContentRenderer renderer,
-                                ContentValidator contentValidator, Path sessionFolder) {
+    public CrawlingTaskCallable(CrawlingTask task, ContentRenderer renderer, ContentValidator contentValidator,
+                                Path sessionFolder, Function<Collection<String>, List<CrawlingTask>> linkProcessor) {
         this.task = task;
         this.contentValidator = contentValidator;
         this.htmlRenderer = renderer;
         this.sessionFolder = sessionFolder;
+        this.linkProcessor = linkProcessor;
     }
 
     @Override
     public CrawlingResult call() {
         long startedAt = System.currentTimeMillis();
+        var page = fetch();
+        return process(page, startedAt, System.currentTimeMillis());
+    }
+
+    /**
+     * Network part of the task, returns the page content.
+     */
+    public PageContent fetch() {
         logger.info("Processing url: {}", task.url());
-        var html = htmlRenderer.renderPage(task);
-        if (StringUtils.isBlank(html)) {
+        var page = htmlRenderer.renderPage(task);
+        if (!page.isNotModified() && page.isBlank()) {
             throw new CrawlingException(task, "EMPTY_RESPONSE_BODY", true);
         }
+        return page;
+    }
+
+    /**
+     * CPU part of the task: parses and validates the page and builds the tasks for its links.
+     */
+    public CrawlingResult process(PageContent page, long startedAt, long fetchedAt) {
+        var validators = PageValidators.fromPage(page, task.validators());
+        if (page.isNotModified() || validators.isSamePayload(task.validators())) {
+            // The links of the page were added the first time it was fetched
+            return new CrawlingResult(task, page, Set.of(), List.of(), startedAt, fetchedAt, System.currentTimeMillis(),
+                    validators, true);
+        }
+        // The raw bytes are kept for storage, the text is only needed to parse the page
+        var html = page.text();
         try {
-            var document = parseHtml(html);
-            document.setBaseUri(task.url());
-            contentValidator.validatePageContent(task, document);
-            var links = getLinks(document);
+            if (contentValidator.needsDocument(task)) {
+                var document = parseHtml(html);
+                document.setBaseUri(task.url());
+                contentValidator.validatePageContent(task, document);
+            }
+            var links = LinkExtractor.extractLinks(html, task.url());
             if (links.size() > 300) {
                 logger.warn("Page {} has more than 300 links", task.url());
             }
+            var linkTasks = linkProcessor.apply(links);
             long endedAt = System.currentTimeMillis();
-            return new CrawlingResult(task, html, links, startedAt, endedAt);
+            return new CrawlingResult(task, page, links, linkTasks, startedAt, fetchedAt, endedAt, validators, false);
         }catch(CrawlingException ex){
-            writeDebugFile(ex, html);
+            writeDebugFile(ex, page.body());
             throw ex;
         }
     }
@@ -70,39 +104,17 @@ public class CrawlingTaskCallable implements Callable<CrawlingResult> {
         }
     }
 
-    private void writeDebugFile(CrawlingException ex, String content){
+    private void writeDebugFile(CrawlingException ex, byte[] content){
         String errorCode = ex.getErrorCode();
         String fileName = ex.getTask().taskId() + ".html";
         var path = sessionFolder.resolve("debug").resolve(errorCode).resolve(fileName);
         try {
             path.getParent().toFile().mkdirs();
-            Files.writeString(path, content);
+            Files.write(path, content);
             logger.warn("Debug file stored at {}", path);
         }catch (IOException ioex){
             logger.error("Error writing file", ioex);
         }
     }
 
-    private boolean isValidLink(String link){
-        if(StringUtils.isBlank(link)) return false;
-        link = link.trim();
-        return link.startsWith("http://") || link.startsWith("https://");
-    }
-
-    private Set<String> getLinks(Document document, String selector) {
-        return document.select(selector)
-                .stream()
-                .filter(l -> !"nofollow".equals(l.attr("rel")))
-                .map(l -> l.absUrl("href"))
-                .filter(this::isValidLink)
-                .collect(Collectors.toSet());
-    }
-
-    private Set<String> getLinks(Document document) {
-        var allLinks = new HashSet<String>();
-        allLinks.addAll(getLinks(document, "a[href]"));
-        allLinks.addAll(getLinks(document, "link[href]"));
-        return allLinks;
-    }
-
 }
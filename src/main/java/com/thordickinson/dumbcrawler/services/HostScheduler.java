@@ -0,0 +1,242 @@
+package com.thordickinson.dumbcrawler.services;
+
+import com.jsoniter.any.Any;
+import com.thordickinson.dumbcrawler.api.CrawlingSessionContext;
+import com.thordickinson.dumbcrawler.api.CrawlingTask;
+import com.thordickinson.dumbcrawler.exceptions.CrawlingException;
+import com.thordickinson.dumbcrawler.util.Misc;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps a ready queue per host and hands out tasks from whichever host is due, so a single big host can't fill
+ * every fetch slot. A host is due when it has queued tasks, fewer than {@code maxConnectionsPerHost} tasks in
+ * flight and its crawl delay since the last task was handed out has elapsed. With {@code politeness.adaptive} the
+ * tasks in flight are capped by the {@link AdaptiveHostLimiter} limit of the host instead, and a {@code Retry-After}
+ * answer holds the host back for the given time.
+ */
+public class HostScheduler {
+
+    private static class HostQueue {
+        private final String host;
+        private final PriorityQueue<CrawlingTask> tasks = new PriorityQueue<>(
+                Comparator.comparingInt(CrawlingTask::priority).reversed().thenComparingInt(CrawlingTask::attempt));
+        private int active = 0;
+        private long nextFetchAt = 0;
+        private boolean ready = false;
+
+        private HostQueue(String host) {
+            this.host = host;
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(HostScheduler.class);
+    private static final String INVALID_STATUS_PREFIX = "INVALID_STATUS_CODE_";
+
+    private final Map<String, HostQueue> hosts = new HashMap<>();
+    private final PriorityQueue<HostQueue> readyHosts = new PriorityQueue<>(Comparator.comparingLong(h -> h.nextFetchAt));
+    private final long crawlDelay;
+    private final int maxConnectionsPerHost;
+    private final int maxQueuedPerHost;
+    private final long maxRetryAfter;
+    private final AdaptiveHostLimiter limiter;
+    private int queued = 0;
+
+    public HostScheduler(CrawlingSessionContext context) {
+        var delay = Misc.parsePeriod(context.getConfig("politeness.crawlDelay").map(Any::toString).orElse("0s"));
+        this.crawlDelay = delay == null ? 0 : delay;
+        this.maxConnectionsPerHost = context.getIntConf("politeness.maxConnectionsPerHost", Integer.MAX_VALUE);
+        this.maxQueuedPerHost = context.getIntConf("politeness.maxQueuedPerHost", 100);
+        this.maxRetryAfter = Misc.parsePeriod(context.getStringConf("politeness.maxRetryAfter", "5m"));
+        this.limiter = context.getBoolConf("politeness.adaptive.enabled", false) ?
+                new AdaptiveHostLimiter(context, maxConnectionsPerHost) : null;
+        logger.info("Crawl delay: {}ms, max connections per host: {}", crawlDelay, maxConnectionsPerHost);
+    }
+
+    private HostQueue getHostQueue(String host) {
+        return hosts.computeIfAbsent(host, HostQueue::new);
+    }
+
+    private int getMaxConnections(HostQueue queue) {
+        return limiter == null ? maxConnectionsPerHost : limiter.getLimit(queue.host);
+    }
+
+    private void updateReadiness(HostQueue queue) {
+        var shouldBeReady = !queue.tasks.isEmpty() && queue.active < getMaxConnections(queue);
+        if (shouldBeReady && !queue.ready) {
+            readyHosts.add(queue);
+        } else if (!shouldBeReady && queue.ready) {
+            readyHosts.remove(queue);
+        }
+        queue.ready = shouldBeReady;
+    }
+
+    private boolean isIdle(HostQueue queue, long now) {
+        // A host is kept while its crawl delay is running, otherwise new tasks would skip the delay.
+        return queue.tasks.isEmpty() && queue.active == 0 && queue.nextFetchAt <= now;
+    }
+
+    public void addTasks(Collection<CrawlingTask> tasks) {
+        for (var task : tasks) {
+            var queue = getHostQueue(Misc.getHost(task.url()));
+            queue.tasks.add(task);
+            queued++;
+            updateReadiness(queue);
+        }
+    }
+
+    /**
+     * Returns the next task from a host that is due, or empty when no host can be fetched right now.
+     */
+    public Optional<CrawlingTask> poll() {
+        var now = System.currentTimeMillis();
+        var queue = readyHosts.peek();
+        if (queue == null || queue.nextFetchAt > now) {
+            return Optional.empty();
+        }
+        readyHosts.poll();
+        queue.ready = false;
+        var task = queue.tasks.poll();
+        queued--;
+        queue.active++;
+        queue.nextFetchAt = now + crawlDelay;
+        updateReadiness(queue);
+        return Optional.ofNullable(task);
+    }
+
+    /**
+     * Must be called once a task handed out by {@link #poll()} is completed, unless it's released with its outcome.
+     */
+    public void release(CrawlingTask task) {
+        release(task, queue -> {
+        });
+    }
+
+    /**
+     * Releases a task that was fetched, {@code latency} being the time the fetch took.
+     */
+    public void release(CrawlingTask task, long latency) {
+        release(task, queue -> {
+            if (limiter != null) {
+                limiter.onSuccess(queue.host, latency, queue.active + 1);
+            }
+        });
+    }
+
+    /**
+     * Releases a task that failed, timeouts and 429/5xx answers lower the limit of the host.
+     */
+    public void release(CrawlingTask task, CrawlingException ex) {
+        release(task, queue -> {
+            if (ex.getRetryAfter() > 0) {
+                pause(queue, Math.min(ex.getRetryAfter(), maxRetryAfter));
+            }
+            if (limiter != null && isOverload(ex)) {
+                limiter.onOverload(queue.host);
+            }
+        });
+    }
+
+    private static boolean isOverload(CrawlingException ex) {
+        if (ex.getCause() instanceof InterruptedIOException) {
+            // Socket, connect and call timeouts
+            return true;
+        }
+        var code = ex.getErrorCode();
+        if (code == null || !code.startsWith(INVALID_STATUS_PREFIX)) {
+            return false;
+        }
+        var status = NumberUtils.toInt(code.substring(INVALID_STATUS_PREFIX.length()));
+        return status == 429 || status >= 500;
+    }
+
+    private void pause(HostQueue queue, long delay) {
+        var until = System.currentTimeMillis() + delay;
+        if (until <= queue.nextFetchAt) {
+            return;
+        }
+        logger.info("Host {} asked to retry after {}ms", queue.host, delay);
+        // The ready queue is ordered by the next fetch time, the host has to be reinserted
+        if (queue.ready) {
+            readyHosts.remove(queue);
+        }
+        queue.nextFetchAt = until;
+        if (queue.ready) {
+            readyHosts.add(queue);
+        }
+    }
+
+    private void release(CrawlingTask task, Consumer<HostQueue> outcome) {
+        var queue = hosts.get(Misc.getHost(task.url()));
+        if (queue == null) {
+            return;
+        }
+        queue.active--;
+        outcome.accept(queue);
+        updateReadiness(queue);
+        if (isIdle(queue, System.currentTimeMillis())) {
+            hosts.remove(queue.host);
+        }
+    }
+
+    /**
+     * Milliseconds until the next host is due, {@link Long#MAX_VALUE} if no host has tasks that can be fetched.
+     */
+    public long getNextDueIn() {
+        var queue = readyHosts.peek();
+        if (queue == null) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, queue.nextFetchAt - System.currentTimeMillis());
+    }
+
+    public int size() {
+        return queued;
+    }
+
+    public boolean isEmpty() {
+        return queued == 0;
+    }
+
+    public int getMaxQueuedPerHost() {
+        return maxQueuedPerHost;
+    }
+
+    /**
+     * Hosts that already have enough queued tasks, new tasks for them should not be loaded yet. Only the
+     * {@code limit} busiest ones are returned so the exclusion list of the store query stays bounded, the per host
+     * cap of each load keeps the others from taking over the batch.
+     */
+    public Set<String> getSaturatedHosts(int limit) {
+        var now = System.currentTimeMillis();
+        hosts.values().removeIf(q -> isIdle(q, now));
+        return hosts.values().stream()
+                .filter(q -> q.tasks.size() >= maxQueuedPerHost)
+                .sorted(Comparator.comparingInt((HostQueue q) -> q.tasks.size()).reversed())
+                .limit(limit)
+                .map(q -> q.host)
+                .collect(Collectors.toSet());
+    }
+
+    public Map<String, Integer> getStatus() {
+        return Map.of("SCHEDULED_HOSTS", hosts.size(), "SCHEDULED_URLS", queued);
+    }
+
+    /**
+     * Queue depth of the busiest hosts formatted as {@code host: queued [active/limit]}.
+     */
+    public List<String> getHostQueueDepths(int limit) {
+        return hosts.values().stream()
+                .sorted(Comparator.comparingInt((HostQueue q) -> q.tasks.size()).reversed())
+                .limit(limit)
+                .map(q -> "%s: %d [%d/%s]".formatted(q.host, q.tasks.size(), q.active,
+                        getMaxConnections(q) == Integer.MAX_VALUE ? "-" : String.valueOf(getMaxConnections(q))))
+                .toList();
+    }
+}
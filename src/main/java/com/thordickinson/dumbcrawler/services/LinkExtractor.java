@@ -0,0 +1,339 @@
+package com.thordickinson.dumbcrawler.services;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jsoup.parser.Parser;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Extracts the links of a page scanning the html once, without building a DOM. Reads the {@code href} of
+ * {@code a} and {@code link} tags, skips the ones with {@code rel="nofollow"} and resolves them against the
+ * {@code <base href>} of the page or the page url. Comments and the content of script, style, textarea and title
+ * tags are skipped like a html parser would do.
+ */
+public class LinkExtractor {
+
+    private static final String[] RAW_TEXT_TAGS = {"script", "style", "textarea", "title"};
+    private static final String ILLEGAL_URI_CHARS = "\"<>\\^`{|}\u007F";
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final String html;
+    private int position = 0;
+    private String base = null;
+    private final List<String> hrefs = new ArrayList<>();
+
+    private LinkExtractor(String html) {
+        this.html = html;
+    }
+
+    public static Set<String> extractLinks(String html, String pageUrl) {
+        var extractor = new LinkExtractor(html);
+        extractor.scan();
+        var base = parse(pageUrl);
+        if (extractor.base != null && base != null) {
+            var resolved = resolve(base, extractor.base);
+            if (resolved != null) {
+                base = resolved;
+            }
+        }
+        var links = new HashSet<String>();
+        if (base == null) {
+            return links;
+        }
+        for (var href : extractor.hrefs) {
+            var link = resolve(base, href);
+            if (link == null) {
+                continue;
+            }
+            var value = lowerCaseScheme(link);
+            if (isValidLink(value)) {
+                links.add(value);
+            }
+        }
+        return links;
+    }
+
+    /**
+     * Schemes are case insensitive, {@code HTTP://} links are lower cased like the DOM extraction did.
+     */
+    private static String lowerCaseScheme(URI link) {
+        var value = link.toString();
+        var scheme = link.getScheme();
+        if (scheme == null) {
+            return value;
+        }
+        var lowerCase = scheme.toLowerCase(Locale.ROOT);
+        return lowerCase.equals(scheme) ? value : lowerCase + value.substring(scheme.length());
+    }
+
+    /**
+     * Parses an absolute or relative url. Tabs and new lines are dropped and the chars a browser would escape are
+     * percent encoded, returns null when it still can't be parsed.
+     */
+    private static URI parse(String url) {
+        var clean = new StringBuilder(url.length());
+        for (var c : url.trim().toCharArray()) {
+            if (c == '\t' || c == '\n' || c == '\r') {
+                continue;
+            }
+            if (c <= ' ' || ILLEGAL_URI_CHARS.indexOf(c) >= 0) {
+                clean.append('%').append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+            } else {
+                clean.append(c);
+            }
+        }
+        try {
+            return new URI(clean.toString());
+        } catch (URISyntaxException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Resolves the href as RFC 3986 does, {@link URI#resolve(URI)} follows the older RFC 2396 for query only and
+     * empty references, hosts without path and dot segments above the root.
+     */
+    private static URI resolve(URI base, String href) {
+        var reference = parse(href);
+        if (reference == null) {
+            return null;
+        }
+        if (reference.isAbsolute()) {
+            return reference;
+        }
+        if (base.isOpaque()) {
+            return null;
+        }
+        if (base.getRawPath() == null || base.getRawPath().isEmpty()) {
+            base = base.resolve("/");
+        }
+        var raw = reference.toString();
+        if (raw.isEmpty() || raw.startsWith("?")) {
+            var page = base.toString();
+            var end = page.indexOf(raw.isEmpty() ? '#' : '?');
+            if (end < 0) {
+                end = page.indexOf('#');
+            }
+            return parse((end < 0 ? page : page.substring(0, end)) + raw);
+        }
+        var resolved = base.resolve(reference);
+        var path = resolved.getRawPath();
+        if (path != null && path.startsWith("/../")) {
+            while (path.startsWith("/../")) {
+                path = path.substring(3);
+            }
+            var query = resolved.getRawQuery() == null ? "" : "?" + resolved.getRawQuery();
+            var fragment = resolved.getRawFragment() == null ? "" : "#" + resolved.getRawFragment();
+            return parse(resolved.getScheme() + "://" + resolved.getRawAuthority() + path + query + fragment);
+        }
+        return resolved;
+    }
+
+    private static boolean isValidLink(String link) {
+        if (StringUtils.isBlank(link)) return false;
+        link = link.trim();
+        return link.startsWith("http://") || link.startsWith("https://");
+    }
+
+    private void scan() {
+        while (true) {
+            var start = html.indexOf('<', position);
+            if (start < 0 || start + 1 >= html.length()) {
+                return;
+            }
+            position = start + 1;
+            var c = html.charAt(position);
+            if (html.startsWith("!--", position)) {
+                skipPast("-->");
+            } else if (c == '!' || c == '?' || c == '/') {
+                skipPast(">");
+            } else if (Character.isLetter(c)) {
+                readTag();
+            }
+        }
+    }
+
+    private void skipPast(String marker) {
+        var end = html.indexOf(marker, position);
+        position = end < 0 ? html.length() : end + marker.length();
+    }
+
+    private void readTag() {
+        var nameStart = position;
+        while (position < html.length() && !isTagNameEnd(html.charAt(position))) {
+            position++;
+        }
+        var name = html.substring(nameStart, position);
+        var isLink = name.equalsIgnoreCase("a") || name.equalsIgnoreCase("link");
+        var isBase = name.equalsIgnoreCase("base");
+        String href = null;
+        String rel = null;
+        while (position < html.length()) {
+            var c = html.charAt(position);
+            if (c == '>') {
+                position++;
+                break;
+            }
+            if (Character.isWhitespace(c) || c == '/') {
+                position++;
+                continue;
+            }
+            var attrStart = position;
+            while (position < html.length() && !isAttributeNameEnd(html.charAt(position))) {
+                position++;
+            }
+            var attribute = html.substring(attrStart, position);
+            var value = readAttributeValue();
+            if ((isLink || isBase) && value != null) {
+                if (href == null && attribute.equalsIgnoreCase("href")) {
+                    href = value;
+                } else if (rel == null && attribute.equalsIgnoreCase("rel")) {
+                    rel = value;
+                }
+            }
+        }
+        if (isLink && href != null && !isNofollow(rel)) {
+            hrefs.add(unescape(href));
+        } else if (isBase && href != null && base == null) {
+            base = unescape(href);
+        }
+        for (var rawTextTag : RAW_TEXT_TAGS) {
+            if (name.equalsIgnoreCase(rawTextTag)) {
+                skipRawText(rawTextTag);
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return the value of the attribute or an empty string if it has no value, null at the end of the input.
+     */
+    private String readAttributeValue() {
+        while (position < html.length() && Character.isWhitespace(html.charAt(position))) {
+            position++;
+        }
+        if (position >= html.length()) {
+            return null;
+        }
+        if (html.charAt(position) != '=') {
+            return "";
+        }
+        position++;
+        while (position < html.length() && Character.isWhitespace(html.charAt(position))) {
+            position++;
+        }
+        if (position >= html.length()) {
+            return null;
+        }
+        var quote = html.charAt(position);
+        if (quote == '"' || quote == '\'') {
+            var end = html.indexOf(quote, position + 1);
+            if (end < 0) {
+                position = html.length();
+                return null;
+            }
+            var value = html.substring(position + 1, end);
+            position = end + 1;
+            return value;
+        }
+        var start = position;
+        while (position < html.length() && !Character.isWhitespace(html.charAt(position))
+                && html.charAt(position) != '>') {
+            position++;
+        }
+        return html.substring(start, position);
+    }
+
+    private void skipRawText(String tag) {
+        while (true) {
+            var end = html.indexOf("</", position);
+            if (end < 0) {
+                position = html.length();
+                return;
+            }
+            position = end + 2;
+            if (html.regionMatches(true, position, tag, 0, tag.length())) {
+                var after = position + tag.length();
+                if (after >= html.length() || isTagNameEnd(html.charAt(after))) {
+                    skipPast(">");
+                    return;
+                }
+            }
+        }
+    }
+
+    private static boolean isNofollow(String rel) {
+        if (rel == null) {
+            return false;
+        }
+        for (var token : rel.split("\\s+")) {
+            if (token.equalsIgnoreCase("nofollow")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decodes the character references usually found in urls ({@code &amp;} and numeric ones) without the jsoup
+     * parser, which allocates a large read buffer on every call. Any other named reference goes to jsoup.
+     */
+    private static String unescape(String value) {
+        var amp = value.indexOf('&');
+        if (amp < 0) {
+            return value;
+        }
+        var result = new StringBuilder(value.length());
+        var last = 0;
+        while (amp >= 0) {
+            var end = value.indexOf(';', amp);
+            if (end < 0) {
+                break;
+            }
+            var reference = value.substring(amp + 1, end);
+            String decoded;
+            if (reference.equals("amp")) {
+                decoded = "&";
+            } else if (reference.startsWith("#")) {
+                decoded = decodeNumeric(reference);
+            } else {
+                return Parser.unescapeEntities(value, true);
+            }
+            if (decoded == null) {
+                return Parser.unescapeEntities(value, true);
+            }
+            result.append(value, last, amp).append(decoded);
+            last = end + 1;
+            amp = value.indexOf('&', last);
+        }
+        if (amp >= 0) {
+            // A reference without ';' is left to jsoup, it knows which ones are allowed in attributes
+            return Parser.unescapeEntities(value, true);
+        }
+        return result.append(value, last, value.length()).toString();
+    }
+
+    private static String decodeNumeric(String reference) {
+        try {
+            var hex = reference.length() > 1 && (reference.charAt(1) == 'x' || reference.charAt(1) == 'X');
+            var codePoint = hex ? Integer.parseInt(reference.substring(2), 16) : Integer.parseInt(reference.substring(1));
+            return Character.isValidCodePoint(codePoint) && codePoint != 0 ? Character.toString(codePoint) : null;
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private static boolean isTagNameEnd(char c) {
+        return Character.isWhitespace(c) || c == '>' || c == '/';
+    }
+
+    private static boolean isAttributeNameEnd(char c) {
+        return Character.isWhitespace(c) || c == '=' || c == '>' || c == '/';
+    }
+}
@@ -0,0 +1,70 @@
+package com.thordickinson.dumbcrawler.services;
+
+import com.thordickinson.dumbcrawler.api.CrawlingTask;
+import com.thordickinson.dumbcrawler.util.Misc;
+
+import java.util.*;
+
+/**
+ * In-memory frontier of queued tasks. Tasks are bucketed by priority (highest first) and attempt count (lowest
+ * first), and by host inside each bucket so excluded hosts are skipped without scanning their tasks.
+ */
+class MemoryFrontier {
+
+    private record Bucket(int priority, int attempt) {
+    }
+
+    private static final Comparator<Bucket> BUCKET_ORDER = Comparator.comparingInt(Bucket::priority).reversed()
+            .thenComparingInt(Bucket::attempt);
+
+    private final TreeMap<Bucket, LinkedHashMap<String, ArrayDeque<CrawlingTask>>> buckets = new TreeMap<>(BUCKET_ORDER);
+    private int size = 0;
+
+    public void add(CrawlingTask task) {
+        buckets.computeIfAbsent(new Bucket(task.priority(), task.attempt()), b -> new LinkedHashMap<>())
+                .computeIfAbsent(Misc.getHost(task.url()), h -> new ArrayDeque<>())
+                .add(task);
+        size++;
+    }
+
+    /**
+     * Removes and returns up to {@code count} tasks in priority order, at most {@code maxPerHost} of each host and
+     * none of {@code excludedHosts}.
+     */
+    public List<CrawlingTask> poll(int count, int maxPerHost, Collection<String> excludedHosts) {
+        var result = new ArrayList<CrawlingTask>(Math.min(count, size));
+        var taken = new HashMap<String, Integer>();
+        var bucketIterator = buckets.values().iterator();
+        while (result.size() < count && bucketIterator.hasNext()) {
+            var hosts = bucketIterator.next();
+            // Round robin over the hosts of the bucket so a single host doesn't take the whole batch.
+            var progressed = true;
+            while (result.size() < count && progressed) {
+                progressed = false;
+                var hostIterator = hosts.entrySet().iterator();
+                while (result.size() < count && hostIterator.hasNext()) {
+                    var entry = hostIterator.next();
+                    if (excludedHosts.contains(entry.getKey()) || taken.getOrDefault(entry.getKey(), 0) >= maxPerHost) {
+                        continue;
+                    }
+                    var tasks = entry.getValue();
+                    result.add(tasks.poll());
+                    taken.merge(entry.getKey(), 1, Integer::sum);
+                    progressed = true;
+                    if (tasks.isEmpty()) {
+                        hostIterator.remove();
+                    }
+                }
+            }
+            if (hosts.isEmpty()) {
+                bucketIterator.remove();
+            }
+        }
+        size -= result.size();
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+}
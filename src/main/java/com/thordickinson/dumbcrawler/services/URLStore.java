@@ -1,14 +1,20 @@
 package com.thordickinson.dumbcrawler.services;
 
+import com.jsoniter.any.Any;
 import com.thordickinson.dumbcrawler.api.CrawlingSessionContext;
 import com.thordickinson.dumbcrawler.api.CrawlingTask;
+import com.thordickinson.dumbcrawler.api.PageValidators;
+import com.thordickinson.dumbcrawler.api.UrlId;
 import com.thordickinson.dumbcrawler.exceptions.CrawlingException;
+import com.thordickinson.dumbcrawler.util.BloomFilter;
 import com.thordickinson.dumbcrawler.util.JDBCUtil;
+import com.thordickinson.dumbcrawler.util.Misc;
 import com.thordickinson.dumbcrawler.util.SQLiteConnection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -22,16 +28,55 @@ public class URLStore {
     }
 
     private static final Logger logger = LoggerFactory.getLogger(URLStore.class);
+    private static final int BATCH_SIZE = 1000;
+    private static final List<String> INSERT_COLUMNS = List.of("hash", "url", "host", "tags", "priority");
+    private static final String INSERT_SQL = "INSERT INTO links (%s) VALUES %s".formatted(
+            String.join(", ", INSERT_COLUMNS), JDBCUtil.generateParams(INSERT_COLUMNS.size()));
+    private static final String MARK_PROCESSED_SQL = "UPDATE links SET status = ?, tags = ?, completed_at = CURRENT_TIMESTAMP, error = ?, attempt_count = ?, " +
+            "etag = ?, last_modified = ?, payload_digest = ? WHERE hash = ?";
+    private static final String TASK_COLUMNS = "url, hash, tags, priority, attempt_count, etag, last_modified, payload_digest";
+    /**
+     * A capped load reads this many rows per url it needs, the rows of hosts over their cap are skipped.
+     */
+    private static final int LOAD_OVERFETCH = 4;
+    private static final int MAX_LOAD_QUERIES = 4;
     private final CrawlingSessionContext context;
     private int queued = 0;
     private int processed = 0;
     private int failed = 0;
     private int maxAttemptCount;
 
+    /**
+     * In memory mode the queued urls are served from {@link #frontier} and new links are queued and flushed to the
+     * database by a background thread, the database is only read at startup to rebuild the frontier.
+     * Status updates are flushed by the same thread in both modes.
+     */
+    private final boolean inMemory;
+    private final MemoryFrontier frontier;
+    private final Map<UrlId, List<Object>> pendingInserts = new ConcurrentHashMap<>();
+    private final Queue<List<Object>> pendingUpdates = new ConcurrentLinkedQueue<>();
+    private ScheduledExecutorService flusher;
+
+    /**
+     * Every hash stored in the links table is added to this filter, a miss means the url is new and the
+     * existence query can be skipped.
+     */
+    private final BloomFilter seenFilter;
+
     public URLStore(CrawlingSessionContext context) {
         this.context = context;
         maxAttemptCount = context.getMaxAttemptCount();
+        inMemory = "memory".equals(context.getStringConf("urlStore.mode", "database"));
+        frontier = inMemory ? new MemoryFrontier() : null;
+        seenFilter = context.getBoolConf("urlStore.seenFilter.enabled", true) ? createSeenFilter() : null;
         initialize();
+        if (seenFilter != null) {
+            loadSeenFilter();
+        }
+        if (inMemory) {
+            loadFrontier();
+        }
+        startFlusher();
     }
 
     private SQLiteConnection getConnection(){
@@ -57,48 +102,226 @@ public class URLStore {
             logger.warn("{} orphan urls were updated", orphans);
     }
 
+    /**
+     * With {@code urlStore.refetch} every url is queued again when the session is resumed, the stored validators
+     * turn the refetch of unchanged pages into conditional requests.
+     */
     private void resetStatus() {
-        boolean refetch = false; // TODO: Make this configurable with a argument
-        if (!refetch) {
+        if (!context.getBoolConf("urlStore.refetch", false)) {
             return;
         }
         logger.warn("Marking all links for refetch");
-        getConnection().update("UPDATE links SET status = 0"); // This will force to revisit all the pages
+        getConnection().update("UPDATE links SET status = ?, attempt_count = 0", Status.QUEUED); // This will force to revisit all the pages
         logger.warn("fetch update completed");
     }
 
+    private void addHostColumn() {
+        var columns = getConnection().query("PRAGMA table_info(links)").stream()
+                .map(c -> String.valueOf(c.get(1))).toList();
+        if (columns.contains("host")) {
+            return;
+        }
+        logger.info("Adding host column to links table");
+        getConnection().update("ALTER TABLE links ADD COLUMN host TEXT");
+        getConnection().addFunction("url_host", Misc::getHost);
+        var updated = getConnection().update("UPDATE links SET host = url_host(url)");
+        logger.info("Host column populated for {} links", updated);
+    }
+
+    /**
+     * Adds the columns with the values used for conditional requests to sessions created before they existed.
+     */
+    private void addValidatorColumns() {
+        var columns = getConnection().query("PRAGMA table_info(links)").stream()
+                .map(c -> String.valueOf(c.get(1))).toList();
+        if (columns.contains("payload_digest")) {
+            return;
+        }
+        logger.info("Adding validator columns to links table");
+        getConnection().update("ALTER TABLE links ADD COLUMN etag TEXT");
+        getConnection().update("ALTER TABLE links ADD COLUMN last_modified TEXT");
+        getConnection().update("ALTER TABLE links ADD COLUMN payload_digest TEXT");
+    }
+
+    /**
+     * Sessions created before the binary ids stored the hash as hex TEXT, the table is rebuilt with the 16 byte
+     * BLOB key. Extracted ids that are not 32 hex chars are replaced by their MD5, as {@link UrlId#fromString} does.
+     */
+    private void migrateHashColumn() {
+        var hashType = getConnection().query("PRAGMA table_info(links)").stream()
+                .filter(c -> "hash".equals(String.valueOf(c.get(1))))
+                .map(c -> String.valueOf(c.get(2))).findFirst().orElse("");
+        if (!"TEXT".equalsIgnoreCase(hashType)) {
+            return;
+        }
+        logger.info("Migrating links table to binary url ids");
+        getConnection().addBinaryFunction("url_id", s -> UrlId.fromString(s).toBytes());
+        getConnection().inTransaction(() -> {
+            createLinksTable("links_binary");
+            var migrated = getConnection().update("INSERT OR IGNORE INTO links_binary " +
+                    "(hash, created_at, url, host, tags, status, priority, taken_at, completed_at, error, attempt_count) " +
+                    "SELECT url_id(hash), created_at, url, host, tags, status, priority, taken_at, completed_at, error, " +
+                    "attempt_count FROM links");
+            getConnection().update("DROP TABLE links");
+            getConnection().update("ALTER TABLE links_binary RENAME TO links");
+            createIndexes();
+            logger.info("{} links migrated", migrated);
+        });
+    }
+
     private void initialize() {
         String check = "SELECT name FROM sqlite_master WHERE type='table' AND name='links'";
         var checkResult = getConnection().singleResult(String.class, check);
         if (checkResult.isPresent()) {
             logger.info("Schema is initialized");
+            addHostColumn();
+            migrateHashColumn();
+            addValidatorColumns();
+            createHostIndex();
             updateOrphans();
-            loadCounters();
             resetStatus();
+            loadCounters();
             return;
         }
 
         logger.info("Initializing schema");
-        String table = "CREATE TABLE IF NOT EXISTS links (" +
-                "hash TEXT PRIMARY KEY, " +
+        createLinksTable("links");
+        createIndexes();
+        logger.info("Schema creation complete");
+    }
+
+    private void createLinksTable(String name) {
+        String table = "CREATE TABLE IF NOT EXISTS " + name + " (" +
+                "hash BLOB PRIMARY KEY, " +
                 "created_at DATETIME DEFAULT CURRENT_TIMESTAMP, " +
                 "url TEXT, " +
+                "host TEXT, " +
                 "tags TEXT, " +
                 "status INTEGER DEFAULT 0, " +
                 "priority INTEGER DEFAULT 0, " +
                 "taken_at DATETIME, " +
                 "completed_at DATETIME, " +
                 "error TEXT, " +
-                "attempt_count INTEGER DEFAULT 0 " +
+                "attempt_count INTEGER DEFAULT 0, " +
+                "etag TEXT, " +
+                "last_modified TEXT, " +
+                "payload_digest TEXT " +
                 ") WITHOUT ROWID";
         getConnection().update(table);
+    }
+
+    private void createIndexes() {
         getConnection().update("CREATE INDEX url_index ON links(url)");
         getConnection().update("CREATE INDEX status_index ON links(status)");
         getConnection().update("CREATE INDEX priority_index ON links(priority)");
-        logger.info("Schema creation complete");
+        createHostIndex();
+    }
+
+    /**
+     * Index used to take the queued urls of each host, also created on sessions that existed before it.
+     */
+    private void createHostIndex() {
+        getConnection().update("CREATE INDEX IF NOT EXISTS status_host_index ON links(status, host)");
     }
 
 
+    private BloomFilter createSeenFilter() {
+        var expectedUrls = context.getIntConf("urlStore.seenFilter.expectedUrls", 1_000_000);
+        var falsePositiveRate = context.getConfig("urlStore.seenFilter.falsePositiveRate")
+                .map(Any::toDouble).orElse(0.01);
+        var filter = new BloomFilter(expectedUrls, falsePositiveRate);
+        logger.info("Seen url filter sized for {} urls: {} bytes, {} hashes", expectedUrls,
+                filter.getSizeInBytes(), filter.getHashCount());
+        return filter;
+    }
+
+    private void loadSeenFilter() {
+        var sql = "SELECT hash FROM links WHERE hash > ? ORDER BY hash LIMIT ?";
+        var lastHash = new byte[0];
+        var loaded = 0;
+        List<List<Object>> rows;
+        do {
+            rows = getConnection().query(sql, List.of(lastHash, BATCH_SIZE));
+            for (var row : rows) {
+                lastHash = (byte[]) row.getFirst();
+                seenFilter.add(UrlId.fromBytes(lastHash).longHash());
+            }
+            loaded += rows.size();
+        } while (rows.size() == BATCH_SIZE);
+        logger.info("{} known urls loaded in the seen filter", loaded);
+    }
+
+    private void loadFrontier() {
+        var sql = "SELECT " + TASK_COLUMNS + " FROM links " +
+                "WHERE status = ? AND attempt_count < ? AND hash > ? ORDER BY hash LIMIT ?";
+        var lastHash = new byte[0];
+        List<List<Object>> rows;
+        do {
+            rows = getConnection().query(sql, List.of(Status.QUEUED, maxAttemptCount, lastHash, BATCH_SIZE));
+            for (var row : rows) {
+                frontier.add(toTask(row));
+            }
+            if (!rows.isEmpty()) {
+                lastHash = (byte[]) rows.getLast().get(1);
+            }
+        } while (rows.size() == BATCH_SIZE);
+        logger.info("{} queued urls loaded in memory", frontier.size());
+    }
+
+    private void startFlusher() {
+        var interval = Misc.parsePeriod(context.getStringConf("urlStore.flushInterval", "1s"));
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "url-store-flusher"));
+        flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the pending inserts and status updates to the database in a single transaction. Updates are taken
+     * before the inserts so every update finds its row, and inserts stay visible in {@link #pendingInserts} until
+     * they are written.
+     */
+    private synchronized void flush() {
+        var updates = new ArrayList<List<Object>>();
+        for (var update = pendingUpdates.poll(); update != null; update = pendingUpdates.poll()) {
+            updates.add(update);
+        }
+        var inserts = new ArrayList<>(pendingInserts.entrySet());
+        if (updates.isEmpty() && inserts.isEmpty()) {
+            return;
+        }
+        try {
+            getConnection().inTransaction(() -> {
+                getConnection().batchUpdate(INSERT_SQL, inserts.stream().map(Map.Entry::getValue).toList());
+                var updated = getConnection().batchUpdate(MARK_PROCESSED_SQL, updates);
+                if (updated != updates.size()) {
+                    logger.warn("Unexpected update count {}, expected {}", updated, updates.size());
+                }
+            });
+            inserts.forEach(e -> pendingInserts.remove(e.getKey()));
+            logger.debug("Flushed {} inserts and {} updates", inserts.size(), updates.size());
+        } catch (RuntimeException ex) {
+            logger.error("Error flushing url store, will retry", ex);
+            pendingUpdates.addAll(updates);
+        }
+    }
+
+    /**
+     * Stops the background writer and flushes every pending write.
+     */
+    public void close() {
+        if (flusher == null) {
+            return;
+        }
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.warn("Url store flusher did not terminate in time");
+            }
+        } catch (InterruptedException ex) {
+            logger.error("Error waiting for the url store flusher", ex);
+        }
+        flush();
+    }
+
     private boolean shouldAddLink(CrawlingTask task) {
         var uri = task.url();
         if (!uri.startsWith("http")) {
@@ -124,31 +347,61 @@ public class URLStore {
         }
 
         logger.debug("{} new urls to append", tasks.size());
-        String placeholders = JDBCUtil.generateParams(tasks.size());
-        var params = tasks.stream().map(CrawlingTask::urlId).toList();
-        var exists = "SELECT hash FROM links WHERE hash in %s".formatted(placeholders);
-        var existent = getConnection().query(exists, params)
-                .stream().map(List::getFirst).map(String::valueOf)
-                .collect(Collectors.toSet());
-
         var toInsert = tasks.stream().collect(Collectors.toMap(CrawlingTask::urlId, Function.identity(), (a, b) -> b));
-        for (var e : existent) {
-            toInsert.remove(e);
+        // Pending inserts must be checked before the database, they are removed only after being written.
+        toInsert.keySet().removeAll(pendingInserts.keySet());
+        if (toInsert.isEmpty())
+            return;
+        var toCheck = seenFilter == null ? new ArrayList<>(toInsert.keySet()) :
+                toInsert.keySet().stream().filter(id -> seenFilter.mightContain(id.longHash())).toList();
+        if (seenFilter != null) {
+            context.increaseCounter("SEEN_FILTER_NEW", toInsert.size() - toCheck.size());
+        }
+        if (!toCheck.isEmpty()) {
+            String placeholders = JDBCUtil.generateParams(toCheck.size());
+            var exists = "SELECT hash FROM links WHERE hash in %s".formatted(placeholders);
+            var existent = getConnection().query(exists, toCheck.stream().map(UrlId::toBytes).toList())
+                    .stream().map(r -> UrlId.fromBytes((byte[]) r.getFirst()))
+                    .collect(Collectors.toSet());
+            for (var e : existent) {
+                toInsert.remove(e);
+            }
+            if (seenFilter != null) {
+                context.increaseCounter("SEEN_FILTER_HITS", existent.size());
+                context.increaseCounter("SEEN_FILTER_FALSE_POSITIVES", toCheck.size() - existent.size());
+            }
         }
         if (toInsert.isEmpty())
             return;
 
 
-        var objects = toInsert.values().stream().map(e -> List.<Object>of(e.urlId(), e.url(), String.join(",", e.tags()), e.priority())).toList();
-        getConnection().insertMany("links", List.of("hash", "url", "tags", "priority"), objects);
+        if (inMemory) {
+            toInsert.forEach((id, task) -> pendingInserts.put(id, toRow(task)));
+            toInsert.values().forEach(frontier::add);
+        } else {
+            getConnection().insertMany("links", INSERT_COLUMNS, toInsert.values().stream().map(this::toRow).toList());
+        }
+        if (seenFilter != null) {
+            toInsert.keySet().forEach(id -> seenFilter.add(id.longHash()));
+        }
 
         context.increaseCounter("DISCOVERED_URLS", toInsert.size());
         queued += toInsert.size();
         logger.debug("New urls added: {}", toInsert.size());
     }
 
+    private List<Object> toRow(CrawlingTask task) {
+        return List.of(task.urlId().toBytes(), task.url(), Misc.getHost(task.url()), String.join(",", task.tags()),
+                task.priority());
+    }
+
     public Map<String, Integer> getStatus() {
-        return Map.of("QUEUED", queued, "PROCESSED", processed, "FAILED", failed);
+        var pendingWrites = pendingInserts.size() + pendingUpdates.size();
+        if (inMemory) {
+            return Map.of("QUEUED", queued, "PROCESSED", processed, "FAILED", failed, "FRONTIER", frontier.size(),
+                    "PENDING_WRITES", pendingWrites);
+        }
+        return Map.of("QUEUED", queued, "PROCESSED", processed, "FAILED", failed, "PENDING_WRITES", pendingWrites);
     }
 
     public void addTasks(Collection<CrawlingTask> tasks) {
@@ -156,8 +409,8 @@ public class URLStore {
         addUrlsInternal(deduplicated);
     }
 
-    public void markTaskAsProcessed(CrawlingTask task) {
-       markProcessed(task, Status.PROCESSED, null);
+    public void markTaskAsProcessed(CrawlingTask task, PageValidators validators) {
+       markProcessed(task, Status.PROCESSED, null, validators);
     }
 
     public void markTasAsFailed(CrawlingTask task, Throwable ex){
@@ -165,47 +418,112 @@ public class URLStore {
         if(ex instanceof CrawlingException){
             detail = ((CrawlingException) ex).getErrorCode();
         }
-        markProcessed(task, Status.FAILED, detail);
+        // A failed fetch keeps the values of the last successful one
+        markProcessed(task, Status.FAILED, detail, task.validators());
     }
 
-    private void markProcessed(CrawlingTask task, int status, String error){
+    private void markProcessed(CrawlingTask task, int status, String error, PageValidators validators){
         var tags = String.join(",", task.tags());
-        var sql = "UPDATE links SET status = ?, tags = ?, completed_at = CURRENT_TIMESTAMP, error = ?, attempt_count = ? WHERE hash = ?";
         var attempt = task.attempt() + 1;
         if(attempt >= maxAttemptCount){
             context.increaseCounter("MAX_ATTEMPT_COUNT_REACHED");
             logger.warn("Max attempt count reached for url: {}", task.url());
         }
-        var updated = getConnection().update(sql, status, tags, error, attempt, task.urlId());
-        if(updated != 1){
-            logger.warn("Unexpected update count {}", updated);
-        }
+        var etag = validators == null ? null : validators.etag();
+        var lastModified = validators == null ? null : validators.lastModified();
+        var payloadDigest = validators == null ? null : validators.payloadDigest();
+        pendingUpdates.add(Arrays.<Object>asList(status, tags, error, attempt, etag, lastModified, payloadDigest,
+                task.urlId().toBytes()));
     }
 
     public List<CrawlingTask> getUnvisited(int count) {
-        var sql = "SELECT url, hash, tags, priority, attempt_count FROM links WHERE status = ? AND attempt_count < ? ORDER BY priority DESC, attempt_count LIMIT ?";
-        var tasks = getConnection().query(sql, List.of(Status.QUEUED, maxAttemptCount, count));
-        var results = tasks.stream().map( row -> {
-            var taskId = UUID.randomUUID().toString();
-            var hash = String.valueOf(row.get(1));
-            var url = String.valueOf(row.get(0));
-            var tags = String.valueOf(row.get(2)).split(",");
-            var priority = (int) row.get(3);
-            var attempt = (int) row.get(4);
-            return new CrawlingTask(taskId, hash, url, tags, attempt, priority);
-        }).toList();
-
-        var params = new LinkedList<>();
-        params.add(Status.PROCESSING);
-        params.addAll(results.stream().map(CrawlingTask::urlId).toList());
-        var update = "UPDATE links SET status = ?, taken_at = CURRENT_TIMESTAMP WHERE hash IN %s".formatted(JDBCUtil.generateParams(results.size()));
-        var updated = getConnection().update(update, params);
-        if(updated != results.size()){
-            logger.warn("Cannot mark all the urls as taken");
+        return getUnvisited(count, Integer.MAX_VALUE, Collections.emptySet());
+    }
+
+    /**
+     * Takes the next {@code count} queued urls, at most {@code maxPerHost} of each host and none of
+     * {@code excludedHosts}, so a single host with the highest priorities doesn't fill the whole batch.
+     */
+    public List<CrawlingTask> getUnvisited(int count, int maxPerHost, Collection<String> excludedHosts) {
+        if (inMemory) {
+            // Taken urls are not marked as PROCESSING, after a crash they are still QUEUED which is what
+            // the orphan update would do anyway.
+            return frontier.poll(count, maxPerHost, excludedHosts).stream()
+                    .map(t -> new CrawlingTask(UUID.randomUUID().toString(), t.urlId(), t.url(), t.tags(), t.attempt(),
+                            t.priority(), t.validators()))
+                    .toList();
         }
-        logger.debug("Returned {} urls to process", updated);
+        // The per host cap is applied here and not in SQL: ranking the rows of each host sorts the whole queue, the
+        // top rows by priority are read from the index. Rows are over-fetched and, when hosts over their cap leave
+        // the batch short, the store is queried again without them.
+        var results = new ArrayList<CrawlingTask>(count);
+        var taken = new HashMap<String, Integer>();
+        var excluded = new LinkedHashSet<>(excludedHosts);
+        var limit = maxPerHost >= count ? count : count * LOAD_OVERFETCH;
+        for (int query = 0; query < MAX_LOAD_QUERIES && results.size() < count; query++) {
+            var rows = queryQueued(excluded, limit);
+            var batch = new ArrayList<CrawlingTask>();
+            for (var row : rows) {
+                if (results.size() + batch.size() >= count) {
+                    break;
+                }
+                var task = toTask(row);
+                var host = row.get(8) == null ? Misc.getHost(task.url()) : (String) row.get(8);
+                if (taken.getOrDefault(host, 0) >= maxPerHost) {
+                    continue;
+                }
+                taken.merge(host, 1, Integer::sum);
+                batch.add(task);
+            }
+            // Taken rows are marked before the next query so it doesn't return them again
+            markAsTaken(batch);
+            results.addAll(batch);
+            if (rows.size() < limit) {
+                break;
+            }
+            taken.forEach((host, hostCount) -> {
+                if (hostCount >= maxPerHost) {
+                    excluded.add(host);
+                }
+            });
+        }
+        logger.debug("Returned {} urls to process", results.size());
         return results;
     }
-}
 
+    private List<List<Object>> queryQueued(Collection<String> excludedHosts, int limit) {
+        var hostFilter = excludedHosts.isEmpty() ? "" :
+                "AND host NOT IN %s ".formatted(JDBCUtil.generateParams(excludedHosts.size()));
+        var sql = ("SELECT " + TASK_COLUMNS + ", host FROM links WHERE status = ? AND attempt_count < ? %s" +
+                "ORDER BY priority DESC, attempt_count LIMIT ?").formatted(hostFilter);
+        var queryParams = new LinkedList<>();
+        queryParams.add(Status.QUEUED);
+        queryParams.add(maxAttemptCount);
+        queryParams.addAll(excludedHosts);
+        queryParams.add(limit);
+        return getConnection().query(sql, queryParams);
+    }
 
+    private void markAsTaken(List<CrawlingTask> tasks) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        var update = "UPDATE links SET status = ?, taken_at = CURRENT_TIMESTAMP WHERE hash = ?";
+        var updated = getConnection().batchUpdate(update, tasks.stream()
+                .map(t -> List.<Object>of(Status.PROCESSING, t.urlId().toBytes())).toList());
+        if(updated != tasks.size()){
+            logger.warn("Cannot mark all the urls as taken");
+        }
+    }
+
+    private CrawlingTask toTask(List<Object> row) {
+        var taskId = UUID.randomUUID().toString();
+        var hash = UrlId.fromBytes((byte[]) row.get(1));
+        var url = String.valueOf(row.get(0));
+        var tags = String.valueOf(row.get(2)).split(",");
+        var priority = (int) row.get(3);
+        var attempt = (int) row.get(4);
+        var validators = PageValidators.of((String) row.get(5), (String) row.get(6), (String) row.get(7));
+        return new CrawlingTask(taskId, hash, url, tags, attempt, priority, validators);
+    }
+}
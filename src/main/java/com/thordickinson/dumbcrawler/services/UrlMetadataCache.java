@@ -0,0 +1,59 @@
+package com.thordickinson.dumbcrawler.services;
+
+import com.thordickinson.dumbcrawler.api.CrawlingSessionContext;
+import com.thordickinson.dumbcrawler.api.CrawlingTask;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Bounded LRU cache of the link task (id, tags and priority) built for a url, so a link found on many pages is
+ * hashed and tagged once. The cache is split in stripes with their own lock, each stripe evicts its least recently
+ * used entry when it gets full.
+ */
+public class UrlMetadataCache {
+
+    private static final int STRIPES = 16;
+
+    private final CrawlingSessionContext context;
+    private final List<Map<String, CrawlingTask>> stripes = new ArrayList<>(STRIPES);
+
+    public UrlMetadataCache(CrawlingSessionContext context) {
+        this.context = context;
+        var maxSize = context.getIntConf("urlCache.maxSize", 100_000);
+        var stripeSize = Math.max(1, maxSize / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes.add(new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CrawlingTask> eldest) {
+                    return size() > stripeSize;
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the cached task for the url or creates it with {@code loader}. The loader runs outside the lock, two
+     * threads missing the same url at once may both create it.
+     */
+    public CrawlingTask get(String url, Function<String, CrawlingTask> loader) {
+        var stripe = stripes.get((url.hashCode() & 0x7fffffff) % STRIPES);
+        CrawlingTask task;
+        synchronized (stripe) {
+            task = stripe.get(url);
+        }
+        if (task != null) {
+            context.increaseCounter("URL_CACHE_HITS");
+            return task;
+        }
+        context.increaseCounter("URL_CACHE_MISSES");
+        task = loader.apply(url);
+        synchronized (stripe) {
+            stripe.put(url, task);
+        }
+        return task;
+    }
+}
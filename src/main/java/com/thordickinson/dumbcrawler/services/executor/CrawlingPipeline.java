@@ -0,0 +1,56 @@
+package com.thordickinson.dumbcrawler.services.executor;
+
+import com.thordickinson.dumbcrawler.api.CrawlingResult;
+import com.thordickinson.dumbcrawler.api.CrawlingSessionContext;
+import com.thordickinson.dumbcrawler.api.PageContent;
+import com.thordickinson.dumbcrawler.services.CrawlingTaskCallable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Parse and store stages that run after a page is fetched, each one with its own pool so CPU bound parsing and
+ * disk bound storage can be sized apart from the fetch concurrency.
+ */
+public class CrawlingPipeline {
+
+    private final PipelineStage parseStage;
+    private final PipelineStage storeStage;
+    private final Consumer<CrawlingResult> store;
+
+    public CrawlingPipeline(CrawlingSessionContext context, Consumer<CrawlingResult> store) {
+        var queueSize = context.getIntConf("pipeline.queueSize", 100);
+        var parseThreads = context.getIntConf("pipeline.parseThreads", Runtime.getRuntime().availableProcessors());
+        var storeThreads = context.getIntConf("pipeline.storeThreads", 2);
+        this.parseStage = new PipelineStage("PARSE", parseThreads, queueSize);
+        this.storeStage = new PipelineStage("STORE", storeThreads, queueSize);
+        this.store = store;
+    }
+
+    CompletableFuture<CrawlingResult> process(CrawlingTaskCallable callable, PageContent content, long startedAt,
+                                              long fetchedAt) {
+        return parseStage.submit(() -> callable.process(content, startedAt, fetchedAt))
+                .thenCompose(result -> storeStage.submit(() -> {
+                    store.accept(result);
+                    return result;
+                }));
+    }
+
+    public Map<String, Integer> getStatus() {
+        var status = new HashMap<>(parseStage.getStatus());
+        status.putAll(storeStage.getStatus());
+        return status;
+    }
+
+    public void shutdown() {
+        parseStage.shutdown();
+        storeStage.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return parseStage.awaitTermination(timeout, unit) && storeStage.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,176 @@
+package com.thordickinson.dumbcrawler.services.executor;
+
+import com.thordickinson.dumbcrawler.api.CrawlingResult;
+import com.thordickinson.dumbcrawler.api.CrawlingSessionContext;
+import com.thordickinson.dumbcrawler.services.CrawlingTaskCallable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the fetch tasks and hands them back in completion order.
+ * Implementations decide which threads run the fetches. The crawler keeps at most {@link #getCapacity()} tasks
+ * fetching and the host scheduler limits the tasks of each host, so tasks start as soon as they are submitted. When a
+ * {@link CrawlingPipeline} is set only the fetch runs here, the task completes once the pipeline is done with it.
+ */
+public abstract class FetchExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(FetchExecutor.class);
+
+    private final ExecutorService executor;
+    private final BlockingQueue<Future<CrawlingResult>> completed = new LinkedBlockingQueue<>();
+    private final Set<FetchTask> pendingTasks = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicLong fetchedCount = new AtomicLong();
+    private long lastFetchedCount = 0;
+    private long lastStatusAt = System.currentTimeMillis();
+    private volatile CrawlingPipeline pipeline;
+
+    protected FetchExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public static FetchExecutor create(CrawlingSessionContext context) {
+        var mode = context.getStringConf("executor.mode", "platform");
+        var threadCount = context.getThreadCount();
+        logger.info("Using {} fetch executor", mode);
+        return switch (mode) {
+            case "platform" -> new PlatformFetchExecutor(threadCount);
+            case "virtual" -> {
+                if (context.getConfig("executor.maxConnectionsPerHost").isPresent()) {
+                    logger.warn("Ignoring executor.maxConnectionsPerHost, use politeness.maxConnectionsPerHost instead");
+                }
+                yield new VirtualFetchExecutor(context.getIntConf("executor.maxConcurrency", threadCount));
+            }
+            default -> throw new IllegalArgumentException("Unknown executor mode: " + mode);
+        };
+    }
+
+    /**
+     * Maximum number of fetches that can run at the same time.
+     */
+    public abstract int getCapacity();
+
+    public void setPipeline(CrawlingPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    public Future<CrawlingResult> submit(CrawlingTaskCallable callable) {
+        var fetchTask = new FetchTask(callable);
+        fetchTask.result.whenComplete((r, ex) -> completed.add(fetchTask.result));
+        pendingTasks.add(fetchTask);
+        fetchTask.future = executor.submit(fetchTask);
+        return fetchTask.result;
+    }
+
+    public Future<CrawlingResult> poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return completed.poll(timeout, unit);
+    }
+
+    public Future<CrawlingResult> poll() {
+        return completed.poll();
+    }
+
+    public int getPendingCount() {
+        return pendingTasks.size();
+    }
+
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    /**
+     * Tasks waiting for or doing their fetch, tasks that moved on to the pipeline are not counted.
+     */
+    public int getFetchingCount() {
+        return getPendingCount() + getActiveCount();
+    }
+
+    public synchronized Map<String, Integer> getStatus() {
+        var now = System.currentTimeMillis();
+        var fetched = fetchedCount.get();
+        var perSecond = (int) ((fetched - lastFetchedCount) * 1000 / Math.max(1, now - lastStatusAt));
+        lastFetchedCount = fetched;
+        lastStatusAt = now;
+        return Map.of("FETCH_ACTIVE", getActiveCount(), "FETCH_PENDING", getPendingCount(),
+                "FETCH_PER_SECOND", perSecond);
+    }
+
+    /**
+     * Cancels every task that did not start yet. Cancelled futures are still delivered by {@link #poll()}.
+     */
+    public int clearPending() {
+        var cleared = 0;
+        for (var task : pendingTasks) {
+            if (pendingTasks.remove(task)) {
+                // The result is cancelled first so an interrupted task can't complete it with the interruption
+                task.result.cancel(false);
+                task.future.cancel(true);
+                cleared++;
+            }
+        }
+        return cleared;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    public void shutdownNow() {
+        executor.shutdownNow();
+    }
+
+    private class FetchTask implements Runnable {
+        private final CrawlingTaskCallable callable;
+        private final CompletableFuture<CrawlingResult> result = new CompletableFuture<>();
+        private volatile Future<?> future;
+
+        private FetchTask(CrawlingTaskCallable callable) {
+            this.callable = callable;
+        }
+
+        @Override
+        public void run() {
+            activeCount.incrementAndGet();
+            if (!pendingTasks.remove(this)) {
+                // The task was cleared before it started, the crawler is stopping so the url is not failed
+                activeCount.decrementAndGet();
+                result.cancel(false);
+                return;
+            }
+            try {
+                var startedAt = System.currentTimeMillis();
+                var currentPipeline = pipeline;
+                if (currentPipeline == null) {
+                    result.complete(callable.call());
+                    return;
+                }
+                var content = callable.fetch();
+                var fetchedAt = System.currentTimeMillis();
+                // With a full parse queue the pipeline runs the parse here, holding the fetch slot until it's done.
+                currentPipeline.process(callable, content, startedAt, fetchedAt).whenComplete((r, ex) -> {
+                    if (ex != null) {
+                        result.completeExceptionally(ex instanceof CompletionException && ex.getCause() != null ?
+                                ex.getCause() : ex);
+                    } else {
+                        result.complete(r);
+                    }
+                });
+            } catch (Throwable ex) {
+                result.completeExceptionally(ex);
+            } finally {
+                activeCount.decrementAndGet();
+                fetchedCount.incrementAndGet();
+            }
+        }
+    }
+}
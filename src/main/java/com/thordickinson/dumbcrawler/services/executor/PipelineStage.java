@@ -0,0 +1,79 @@
+package com.thordickinson.dumbcrawler.services.executor;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Pool of threads fed by a bounded queue. When the queue is full the submitting thread runs the work itself, so a
+ * slow stage slows down the stage that feeds it instead of buffering without limit. Work submitted after the stage
+ * is shut down fails its future, so the task waiting for it still completes.
+ */
+public class PipelineStage {
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong completed = new AtomicLong();
+    private long lastCompleted = 0;
+    private long lastStatusAt = System.currentTimeMillis();
+
+    public PipelineStage(String name, int threads, int queueSize) {
+        this.name = name;
+        var threadCount = new AtomicInteger();
+        ThreadFactory factory = r -> new Thread(r, name.toLowerCase() + "-" + threadCount.getAndIncrement());
+        this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), factory, (r, pool) -> {
+                    if (pool.isShutdown()) {
+                        throw new RejectedExecutionException("Stage " + name + " is shut down");
+                    }
+                    r.run();
+                });
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<T> work) {
+        var future = new CompletableFuture<T>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(work.get());
+                } catch (Throwable ex) {
+                    future.completeExceptionally(ex);
+                } finally {
+                    completed.incrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     * Queue depth, busy threads and items completed per second since the previous call.
+     */
+    public synchronized Map<String, Integer> getStatus() {
+        var now = System.currentTimeMillis();
+        var total = completed.get();
+        var elapsed = Math.max(1, now - lastStatusAt);
+        var perSecond = (int) ((total - lastCompleted) * 1000 / elapsed);
+        lastCompleted = total;
+        lastStatusAt = now;
+        return Map.of(name + "_QUEUE", executor.getQueue().size(), name + "_ACTIVE", executor.getActiveCount(),
+                name + "_PER_SECOND", perSecond);
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+}
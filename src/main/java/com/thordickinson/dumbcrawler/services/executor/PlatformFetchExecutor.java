@@ -0,0 +1,24 @@
+package com.thordickinson.dumbcrawler.services.executor;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed pool of platform threads, concurrency is bounded by the pool size.
+ */
+public class PlatformFetchExecutor extends FetchExecutor {
+
+    private final int threadCount;
+
+    public PlatformFetchExecutor(int threadCount) {
+        super(new ThreadPoolExecutor(threadCount, threadCount, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>()));
+        this.threadCount = threadCount;
+    }
+
+    @Override
+    public int getCapacity() {
+        return threadCount;
+    }
+}
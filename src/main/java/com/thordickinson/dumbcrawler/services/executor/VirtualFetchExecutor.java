@@ -0,0 +1,22 @@
+package com.thordickinson.dumbcrawler.services.executor;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Runs every fetch on its own virtual thread. A blocked fetch only parks its virtual thread, so the number of
+ * in-flight requests is limited by {@code maxConcurrency} instead of by the pool size.
+ */
+public class VirtualFetchExecutor extends FetchExecutor {
+
+    private final int maxConcurrency;
+
+    public VirtualFetchExecutor(int maxConcurrency) {
+        super(Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("fetch-", 0).factory()));
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    @Override
+    public int getCapacity() {
+        return maxConcurrency;
+    }
+}
@@ -0,0 +1,48 @@
+package com.thordickinson.dumbcrawler.services.renderer;
+
+import com.thordickinson.dumbcrawler.api.CrawlingTask;
+import com.thordickinson.dumbcrawler.exceptions.CrawlingException;
+import com.thordickinson.dumbcrawler.util.BufferPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads response bodies into buffers shared by all the renderers, most pages fit in the initial 64 KB so the buffer
+ * is only copied once to the exact size of the body.
+ */
+class BodyReader {
+
+    private static final BufferPool BUFFER_POOL = new BufferPool(64, 64 * 1024, 1024 * 1024);
+
+    private BodyReader() {
+
+    }
+
+    static void checkContentLength(CrawlingTask task, long contentLength, int maxBodySize) {
+        if (contentLength > maxBodySize) {
+            throw new CrawlingException(task, "BODY_TOO_LARGE", String.valueOf(contentLength), false);
+        }
+    }
+
+    static byte[] read(CrawlingTask task, InputStream in, int maxBodySize) throws IOException {
+        var buffer = BUFFER_POOL.acquire();
+        try {
+            int length = 0;
+            int read;
+            while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+                if (length > maxBodySize) {
+                    throw new CrawlingException(task, "BODY_TOO_LARGE", "More than " + maxBodySize + " bytes", false);
+                }
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, maxBodySize + 1));
+                }
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            BUFFER_POOL.release(buffer);
+        }
+    }
+}
@@ -1,13 +1,16 @@
 package com.thordickinson.dumbcrawler.services.renderer;
 
+import com.jsoniter.ValueType;
 import com.jsoniter.any.Any;
 import com.thordickinson.dumbcrawler.api.CrawlingSessionContext;
 import com.thordickinson.dumbcrawler.api.CrawlingTask;
+import com.thordickinson.dumbcrawler.api.PageContent;
 import com.thordickinson.dumbcrawler.util.AbstractCrawlingComponent;
 import com.thordickinson.dumbcrawler.util.CollectionUtils;
 import org.springframework.stereotype.Service;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -17,6 +20,7 @@ public class ContentRenderer extends AbstractCrawlingComponent {
 
     private final RocketscrapeRenderer rocketscrapeRenderer = new RocketscrapeRenderer();
     private final SimpleHttpRenderer defaultRenderer = new SimpleHttpRenderer();
+    private final OkHttpRenderer okHttpRenderer = new OkHttpRenderer();
     private Map<String, Set<String>> renderTagConfig = Collections.emptyMap();
 
 
@@ -24,22 +28,30 @@ public class ContentRenderer extends AbstractCrawlingComponent {
         super("contentRenderer");
     }
 
-    public String renderPage(CrawlingTask task){
+    public PageContent renderPage(CrawlingTask task){
        return tryRender(task);
     }
 
-    private String tryRender(CrawlingTask task){
+    private PageContent tryRender(CrawlingTask task){
         if(requiresProxy(task)){
             logger.debug("Proxifying ulr {}", task.url());
             return rocketscrapeRenderer.renderHtml(task);
         }
+        if(hasRendererTag(task, "okhttp")){
+            logger.debug("Using pooled connection to get ulr {}", task.url());
+            return okHttpRenderer.renderHtml(task);
+        }
         logger.debug("Using plain connection to get ulr {}", task.url());
         return defaultRenderer.renderHtml(task);
     }
 
 
     private boolean requiresProxy(CrawlingTask task){
-        var set = renderTagConfig.getOrDefault("proxify", Collections.emptySet());
+        return hasRendererTag(task, "proxify");
+    }
+
+    private boolean hasRendererTag(CrawlingTask task, String renderer){
+        var set = renderTagConfig.getOrDefault(renderer, Collections.emptySet());
         if(set.contains("all")){
             return true;
         }
@@ -52,14 +64,34 @@ public class ContentRenderer extends AbstractCrawlingComponent {
     }
 
 
+    /**
+     * The renderer section also holds plain settings (e.g. maxBodySize), only the tag lists are routing rules.
+     */
+    private static Map<String, Any> filterTagLists(Map<String, Any> config){
+        var lists = new HashMap<String, Any>();
+        config.forEach((key, value) -> {
+            if(value.valueType() == ValueType.ARRAY){
+                lists.put(key, value);
+            }
+        });
+        return lists;
+    }
+
     @Override
     protected void loadConfigurations(CrawlingSessionContext context) {
         var config = context.getConfig("renderer");
         renderTagConfig =
         config.map(Any::asMap)
+                .map(ContentRenderer::filterTagLists)
                 .map( m -> CollectionUtils.mapValues(m, k -> (Set<String>) new HashSet<>(k.asList().stream().map(Any::toString).toList())))
                 .orElse(Collections.emptyMap());
         rocketscrapeRenderer.initialize(context);
         defaultRenderer.initialize(context);
+        okHttpRenderer.initialize(context);
+    }
+
+    @Override
+    public void destroy() {
+        okHttpRenderer.destroy();
     }
 }
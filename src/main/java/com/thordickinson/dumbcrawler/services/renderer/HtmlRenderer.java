@@ -2,8 +2,9 @@ package com.thordickinson.dumbcrawler.services.renderer;
 
 
 import com.thordickinson.dumbcrawler.api.CrawlingTask;
+import com.thordickinson.dumbcrawler.api.PageContent;
 
 public interface HtmlRenderer {
 
-    String renderHtml(CrawlingTask url);
+    PageContent renderHtml(CrawlingTask url);
 }
@@ -0,0 +1,137 @@
+package com.thordickinson.dumbcrawler.services.renderer;
+
+import com.thordickinson.dumbcrawler.api.CrawlingSessionContext;
+import com.thordickinson.dumbcrawler.api.CrawlingTask;
+import com.thordickinson.dumbcrawler.api.PageContent;
+import com.thordickinson.dumbcrawler.exceptions.CrawlingException;
+import com.thordickinson.dumbcrawler.util.AbstractCrawlingComponent;
+import com.thordickinson.dumbcrawler.util.CharsetDetector;
+import com.thordickinson.dumbcrawler.util.Misc;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.brotli.BrotliInterceptor;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renderer backed by a single {@link OkHttpClient}, so connections are pooled and multiplexed over HTTP/2 when the
+ * server supports it. Calls go through the client dispatcher, which caps the requests in flight per host; the
+ * fetch thread only waits for the result.
+ */
+public class OkHttpRenderer extends AbstractCrawlingComponent implements HtmlRenderer {
+
+    private OkHttpClient client;
+    private int maxBodySize = 10 * 1024 * 1024;
+
+    public OkHttpRenderer() {
+        super("okHttpRenderer");
+    }
+
+    @Override
+    protected void loadConfigurations(CrawlingSessionContext context) {
+        maxBodySize = 1024 * 1024 * context.getIntConf("renderer.maxBodySize", 10);
+        var dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(context.getIntConf("renderer.maxRequests", 256));
+        dispatcher.setMaxRequestsPerHost(context.getIntConf("renderer.maxRequestsPerHost", 8));
+        var connectionPool = new ConnectionPool(context.getIntConf("renderer.maxIdleConnections", 32),
+                context.getIntConf("renderer.keepAlive", 300), TimeUnit.SECONDS);
+        destroy();
+        client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(connectionPool)
+                .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                // Asks for brotli or gzip and decodes the body, okhttp would only handle gzip on its own
+                .addInterceptor(BrotliInterceptor.INSTANCE)
+                .connectTimeout(context.getIntConf("renderer.connectTimeout", 10_000), TimeUnit.MILLISECONDS)
+                .readTimeout(context.getIntConf("renderer.readTimeout", 30_000), TimeUnit.MILLISECONDS)
+                .callTimeout(context.getIntConf("renderer.callTimeout", 0), TimeUnit.MILLISECONDS)
+                .followRedirects(true)
+                .build();
+    }
+
+    @Override
+    public PageContent renderHtml(CrawlingTask task) {
+        var request = new Request.Builder()
+                .url(transformUrl(task.url()))
+                .header("User-Agent", "Mozilla/5.0");
+        var validators = task.validators();
+        if (validators != null && validators.etag() != null) {
+            request.header("If-None-Match", validators.etag());
+        }
+        if (validators != null && validators.lastModified() != null) {
+            request.header("If-Modified-Since", validators.lastModified());
+        }
+        var call = client.newCall(request.build());
+        var result = new CompletableFuture<PageContent>();
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (response) {
+                    result.complete(readResponse(task, response));
+                } catch (Throwable ex) {
+                    result.completeExceptionally(ex);
+                }
+            }
+        });
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            call.cancel();
+            Thread.currentThread().interrupt();
+            throw new CrawlingException(task, "HTML_RENDERING_ERROR", e.toString(), true, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CrawlingException crawlingException) {
+                throw crawlingException;
+            }
+            throw new CrawlingException(task, "HTML_RENDERING_ERROR", e.getCause().toString(), true, e.getCause());
+        }
+    }
+
+    private PageContent readResponse(CrawlingTask task, Response response) throws IOException {
+        int responseCode = response.code();
+        if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            return new PageContent(responseCode, response.headers().toMultimap(), new byte[0], StandardCharsets.UTF_8);
+        }
+        if (responseCode != 200) {
+            var retry = responseCode != 404;
+            var retryAfter = Misc.parseRetryAfter(response.header("Retry-After"));
+            throw new CrawlingException(task, "INVALID_STATUS_CODE_" + responseCode, String.valueOf(responseCode), retry,
+                    retryAfter, null);
+        }
+        var responseBody = response.body();
+        BodyReader.checkContentLength(task, responseBody.contentLength(), maxBodySize);
+        var body = BodyReader.read(task, responseBody.byteStream(), maxBodySize);
+        var charset = CharsetDetector.detect(response.header("Content-Type"), body, body.length);
+        return new PageContent(responseCode, response.headers().toMultimap(), body, charset);
+    }
+
+    protected String transformUrl(String original) {
+        return original;
+    }
+
+    @Override
+    public void destroy() {
+        if (client != null) {
+            client.dispatcher().executorService().shutdown();
+            client.connectionPool().evictAll();
+            client = null;
+        }
+    }
+}
@@ -1,24 +1,42 @@
 package com.thordickinson.dumbcrawler.services.renderer;
 
+import com.thordickinson.dumbcrawler.api.CrawlingSessionContext;
 import com.thordickinson.dumbcrawler.api.CrawlingTask;
+import com.thordickinson.dumbcrawler.api.PageContent;
 import com.thordickinson.dumbcrawler.exceptions.CrawlingException;
 import com.thordickinson.dumbcrawler.util.AbstractCrawlingComponent;
+import com.thordickinson.dumbcrawler.util.CharsetDetector;
+import com.thordickinson.dumbcrawler.util.Misc;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class SimpleHttpRenderer extends AbstractCrawlingComponent implements HtmlRenderer {
 
+    private int maxBodySize = 10 * 1024 * 1024;
+    private int connectTimeout = 10_000;
+    private int readTimeout = 30_000;
+
     public SimpleHttpRenderer() {
         super("simpleHttpRenderer");
     }
 
     @Override
-    public String renderHtml(CrawlingTask task) {
+    protected void loadConfigurations(CrawlingSessionContext context) {
+        maxBodySize = 1024 * 1024 * context.getIntConf("renderer.maxBodySize", 10);
+        connectTimeout = context.getIntConf("renderer.connectTimeout", 10_000);
+        readTimeout = context.getIntConf("renderer.readTimeout", 30_000);
+    }
+
+    @Override
+    public PageContent renderHtml(CrawlingTask task) {
         try {
             return render(task);
         } catch (IOException e) {
@@ -26,29 +44,52 @@ public class SimpleHttpRenderer extends AbstractCrawlingComponent implements Htm
         }
     }
 
-    private String render(CrawlingTask task) throws IOException {
+    private PageContent render(CrawlingTask task) throws IOException {
         URL obj = URI.create(transformUrl(task.url())).toURL();
         HttpURLConnection con = (HttpURLConnection) obj.openConnection();
-        con.setConnectTimeout(10_000);
-        con.setReadTimeout(30_000);
+        con.setConnectTimeout(connectTimeout);
+        con.setReadTimeout(readTimeout);
 
         //add request header
         con.setRequestProperty("User-Agent", "Mozilla/5.0");
         con.setRequestProperty("Accept-Charset", "ISO-8859-1");
+        var validators = task.validators();
+        if (validators != null && validators.etag() != null) {
+            con.setRequestProperty("If-None-Match", validators.etag());
+        }
+        if (validators != null && validators.lastModified() != null) {
+            con.setRequestProperty("If-Modified-Since", validators.lastModified());
+        }
         int responseCode = con.getResponseCode();
+        if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            return new PageContent(responseCode, getHeaders(con), new byte[0], StandardCharsets.UTF_8);
+        }
         if (responseCode != 200) {
             var retry = responseCode != 404;
-            throw new CrawlingException(task, "INVALID_STATUS_CODE_" + responseCode, String.valueOf(responseCode), retry);
+            var retryAfter = Misc.parseRetryAfter(con.getHeaderField("Retry-After"));
+            throw new CrawlingException(task, "INVALID_STATUS_CODE_" + responseCode, String.valueOf(responseCode), retry,
+                    retryAfter, null);
         }
+        BodyReader.checkContentLength(task, con.getContentLengthLong(), maxBodySize);
 
-        StringBuilder response = new StringBuilder();
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(con.getInputStream()))) {
-            String inputLine;
-            while ((inputLine = in.readLine()) != null) {
-                response.append(inputLine);
-            }
+        byte[] body;
+        try (InputStream in = con.getInputStream()) {
+            body = BodyReader.read(task, in, maxBodySize);
         }
-        return response.toString();
+        var headers = getHeaders(con);
+        var charset = CharsetDetector.detect(con.getContentType(), body, body.length);
+        return new PageContent(responseCode, headers, body, charset);
+    }
+
+    private Map<String, List<String>> getHeaders(HttpURLConnection con) {
+        var headers = new HashMap<String, List<String>>();
+        // The status line is returned under the null key
+        con.getHeaderFields().forEach((name, values) -> {
+            if (name != null) {
+                headers.put(name, values);
+            }
+        });
+        return headers;
     }
 
     protected String transformUrl(String original){
@@ -6,13 +6,22 @@ import com.thordickinson.dumbcrawler.api.CrawlingSessionContext;
 import com.thordickinson.dumbcrawler.util.AbstractCrawlingComponent;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 public abstract class AbstractStorageManager  extends AbstractCrawlingComponent {
 
+    /**
+     * Result that could not be written, its task is marked as failed so the page is fetched again.
+     */
+    public record StoreFailure(CrawlingResult result, IOException error) {
+    }
+
     private Set<String> allowedTags = Collections.emptySet();
+    private boolean sync = false;
 
     public AbstractStorageManager(String key) {
         super(key);
@@ -23,6 +32,15 @@ public abstract class AbstractStorageManager  extends AbstractCrawlingComponent
         allowedTags = context.getConfig("storage.includedTags")
                 .map(Any::asList).map(l -> (Set<String>) new HashSet<String>(l.stream().map(Object::toString).toList()))
                 .orElseGet(Collections::emptySet);
+        sync = context.getBoolConf("storage.sync", context.getBoolConf("storage.async.enabled", false));
+    }
+
+    /**
+     * Whether {@link #flush(boolean)} forces the written data to disk. Off by default on the main loop, where every
+     * page is flushed on its own, and on by default with the asynchronous writer, which flushes once per batch.
+     */
+    protected boolean isSync() {
+        return sync;
     }
 
     private boolean shouldStore(CrawlingResult result, CrawlingSessionContext sessionContext){
@@ -34,21 +52,60 @@ public abstract class AbstractStorageManager  extends AbstractCrawlingComponent
         return false;
     }
 
-    public void storeResult(CrawlingResult result, CrawlingSessionContext sessionContext) {
+    /**
+     * Writes the result if its tags are stored. An error is counted and thrown, the result is not stored.
+     */
+    public void storeResult(CrawlingResult result, CrawlingSessionContext sessionContext) throws IOException {
         if(!shouldStore(result, sessionContext)){
             logger.debug("Ignoring url: {}", result.task().url());
             sessionContext.increaseCounter("UNSAVED_PAGES");
             return;
         }
         try {
+            if (result.revisit()) {
+                doStoreRevisit(result, sessionContext);
+                sessionContext.increaseCounter("REVISITED_PAGES");
+                return;
+            }
             doStoreResult(result, sessionContext);
             sessionContext.increaseCounter("SAVED_PAGES");
         }catch (IOException ex){
-            logger.error("Error storing data for {} - Ignoring", result.task().url(), ex);
+            logger.error("Error storing data for {}", result.task().url(), ex);
             sessionContext.increaseCounter("STORE_ERROR");
+            throw ex;
+        }
+    }
+
+    /**
+     * Stores the results and flushes them once, synced to disk when {@link #isSync()}. The results that could not be
+     * written are returned and the rest are stored; an error flushing is thrown since none of the results may have
+     * been written.
+     */
+    public List<StoreFailure> storeResults(List<CrawlingResult> results, CrawlingSessionContext sessionContext) throws IOException {
+        var failures = new ArrayList<StoreFailure>();
+        for (var result : results) {
+            try {
+                storeResult(result, sessionContext);
+            } catch (IOException ex) {
+                failures.add(new StoreFailure(result, ex));
+            }
         }
+        flush(sync);
+        return failures;
+    }
+
+    /**
+     * Writes out what the storage keeps buffered, nothing by default. With {@code sync} what was written since the
+     * previous flush is forced to disk too.
+     */
+    protected void flush(boolean sync) throws IOException {
     }
 
     protected abstract void doStoreResult(CrawlingResult result, CrawlingSessionContext sessionContext) throws IOException;
 
+    /**
+     * Records a page that didn't change since it was stored. The body is empty when the server answered 304.
+     */
+    protected abstract void doStoreRevisit(CrawlingResult result, CrawlingSessionContext sessionContext) throws IOException;
+
 }
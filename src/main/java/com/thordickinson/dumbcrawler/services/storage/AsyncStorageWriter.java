@@ -0,0 +1,162 @@
+package com.thordickinson.dumbcrawler.services.storage;
+
+import com.thordickinson.dumbcrawler.api.CrawlingResult;
+import com.thordickinson.dumbcrawler.api.CrawlingSessionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores results on its own threads so the main loop doesn't wait for compression and disk writes. Results are
+ * taken from a bounded queue in batches and every batch is flushed before its results are reported as stored,
+ * the main loop only marks a task as processed once its page is on disk.
+ */
+public class AsyncStorageWriter {
+
+    /**
+     * Result taken from the queue, {@code error} is set when it could not be written or its batch could not be
+     * flushed.
+     */
+    public record StoredResult(CrawlingResult result, Throwable error) {
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncStorageWriter.class);
+    private static final long POLL_INTERVAL = 100;
+
+    private final AbstractStorageManager storageManager;
+    private final CrawlingSessionContext sessionContext;
+    private final int batchSize;
+    private final BlockingQueue<CrawlingResult> queue;
+    private final ConcurrentLinkedQueue<StoredResult> stored = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running = true;
+    private long lastCompleted = 0;
+    private long lastStatusAt = System.currentTimeMillis();
+
+    public AsyncStorageWriter(CrawlingSessionContext sessionContext, AbstractStorageManager storageManager) {
+        this.storageManager = storageManager;
+        this.sessionContext = sessionContext;
+        this.batchSize = Math.max(1, sessionContext.getIntConf("storage.async.batchSize", 32));
+        this.queue = new ArrayBlockingQueue<>(sessionContext.getIntConf("storage.async.queueSize", 256));
+        var threadCount = sessionContext.getIntConf("storage.async.threads", 1);
+        for (int i = 0; i < threadCount; i++) {
+            var thread = new Thread(this::writeLoop, "storage-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        logger.info("Asynchronous storage with {} threads, batches of {}", threadCount, batchSize);
+    }
+
+    /**
+     * Queues the result, blocking while the queue is full. The scheduler checks {@link #isFull()} first so this
+     * rarely blocks.
+     */
+    public void submit(CrawlingResult result) throws InterruptedException {
+        pending.incrementAndGet();
+        try {
+            queue.put(result);
+        } catch (InterruptedException ex) {
+            pending.decrementAndGet();
+            throw ex;
+        }
+    }
+
+    public boolean isFull() {
+        return queue.remainingCapacity() == 0;
+    }
+
+    /**
+     * Results queued or being written that were not reported by {@link #poll()} yet.
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Next result whose batch was flushed, or null if there is none.
+     */
+    public StoredResult poll() {
+        var next = stored.poll();
+        if (next != null) {
+            pending.decrementAndGet();
+        }
+        return next;
+    }
+
+    private void writeLoop() {
+        var batch = new ArrayList<CrawlingResult>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                var first = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                writeBatch(batch);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<CrawlingResult> batch) {
+        var errors = new IdentityHashMap<CrawlingResult, Throwable>();
+        try {
+            for (var failure : storageManager.storeResults(batch, sessionContext)) {
+                errors.put(failure.result(), failure.error());
+            }
+        } catch (Exception ex) {
+            logger.error("Error flushing a batch of {} results", batch.size(), ex);
+            batch.forEach(result -> errors.put(result, ex));
+        }
+        for (var result : batch) {
+            stored.add(new StoredResult(result, errors.get(result)));
+        }
+        completed.addAndGet(batch.size());
+    }
+
+    /**
+     * Queue depth, results waiting to be reported and results stored per second since the previous call.
+     */
+    public synchronized Map<String, Integer> getStatus() {
+        var now = System.currentTimeMillis();
+        var total = completed.get();
+        var elapsed = Math.max(1, now - lastStatusAt);
+        var perSecond = (int) ((total - lastCompleted) * 1000 / elapsed);
+        lastCompleted = total;
+        lastStatusAt = now;
+        return Map.of("STORAGE_QUEUE", queue.size(), "STORAGE_PENDING", pending.get(),
+                "STORAGE_PER_SECOND", perSecond);
+    }
+
+    /**
+     * Stops taking new results once the queue is empty and waits for the threads to write what they have.
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        running = false;
+        var deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (var thread : threads) {
+            thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            if (thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -4,54 +4,186 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.thordickinson.dumbcrawler.api.CrawlingResult;
 import com.thordickinson.dumbcrawler.api.CrawlingSessionContext;
+import com.thordickinson.dumbcrawler.api.UrlId;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.zip.GZIPOutputStream;
 
 @Service
 public class GZipStorageManager extends AbstractStorageManager {
 
     private static final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private static final String URL_IDS_PROPERTY = "storage.urlIds";
+    /**
+     * Files and directories written by the batch of the current thread, synced when the batch is flushed. Writer
+     * threads store their batches at the same time, each one syncs its own files.
+     */
+    private final ThreadLocal<Set<Path>> unsynced = ThreadLocal.withInitial(LinkedHashSet::new);
+
     public GZipStorageManager() {
         super("storage");
     }
 
     private Map<String,String> getMetadata(CrawlingResult result){
-        return Map.of("id", result.task().taskId(),
-                "url", result.task().url(),
-                "time", DateTimeFormatter.ISO_INSTANT.format(Instant.now()));
+        var metadata = new HashMap<String, String>();
+        metadata.put("id", result.task().taskId());
+        metadata.put("url", result.task().url());
+        metadata.put("time", DateTimeFormatter.ISO_INSTANT.format(Instant.now()));
+        var validators = result.validators();
+        if (validators != null && validators.payloadDigest() != null) {
+            metadata.put("payloadDigest", validators.payloadDigest());
+        }
+        return metadata;
+    }
+
+    @Override
+    protected void loadConfigurations(CrawlingSessionContext context) {
+        try {
+            migrateDirectoryNames(context);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Error renaming the page directories", ex);
+        }
+        super.loadConfigurations(context);
+    }
+
+    /**
+     * Sessions created before the binary url ids named the page directories after the extracted id. Extracted ids
+     * that are not 32 hex chars now map to the MD5 of their text, as the links table migration does, so those
+     * directories are renamed to the hex form of their new id. Done once per session.
+     */
+    private void migrateDirectoryNames(CrawlingSessionContext context) throws IOException {
+        if (context.getProperty(URL_IDS_PROPERTY).isPresent()) {
+            return;
+        }
+        var crawlDir = context.getCrawlDir();
+        if (!context.isNewSession() && Files.isDirectory(crawlDir)) {
+            var renamed = 0;
+            try (var list = Files.list(crawlDir)) {
+                for (var folder : list.filter(Files::isDirectory).toList()) {
+                    var name = folder.getFileName().toString();
+                    var target = crawlDir.resolve(UrlId.fromString(name).toString());
+                    if (target.getFileName().toString().equals(name)) {
+                        continue;
+                    }
+                    if (Files.exists(target)) {
+                        logger.warn("Not renaming {}, {} already exists", folder, target.getFileName());
+                        continue;
+                    }
+                    Files.move(folder, target);
+                    renamed++;
+                }
+            }
+            logger.info("Renamed {} page directories to their binary url ids", renamed);
+        }
+        context.setProperty(URL_IDS_PROPERTY, "binary");
     }
 
     @Override
     protected void doStoreResult(CrawlingResult result, CrawlingSessionContext sessionContext) throws IOException {
-        final var folder = sessionContext.getCrawlDir().resolve(result.task().urlId());
-        Files.createDirectories(folder);
+        final var folder = sessionContext.getCrawlDir().resolve(result.task().urlId().toString());
+        if (Files.notExists(folder)) {
+            Files.createDirectories(folder);
+            written(folder.getParent());
+        }
 
         final var metadata = getMetadata(result);
         final var metadataFilePath = folder.resolve("metadata.json");
         saveJSONFile(metadataFilePath, metadata);
 
-        final String content = result.content();
         final var filePath = folder.resolve("content.zip");
-        saveGzippedContent(filePath, content);
+        saveGzippedContent(filePath, result.content().body());
+    }
+
+    /**
+     * Only the metadata is rewritten, the stored content is the same. Pages not stored on their first fetch (e.g.
+     * their tags didn't match then) are saved in full if the body is available.
+     */
+    @Override
+    protected void doStoreRevisit(CrawlingResult result, CrawlingSessionContext sessionContext) throws IOException {
+        final var folder = sessionContext.getCrawlDir().resolve(result.task().urlId().toString());
+        if (Files.notExists(folder.resolve("content.zip"))) {
+            if (result.content().isNotModified()) {
+                logger.debug("Page not modified but never stored: {}", result.task().url());
+                return;
+            }
+            doStoreResult(result, sessionContext);
+            return;
+        }
+        saveJSONFile(folder.resolve("metadata.json"), getMetadata(result));
+    }
+
+    /**
+     * Each page is written to its own files as it is stored, with {@code sync} the files written by the batch are
+     * synced followed by the directories they were created in.
+     */
+    @Override
+    protected void flush(boolean sync) throws IOException {
+        var paths = unsynced.get();
+        if (!sync || paths.isEmpty()) {
+            return;
+        }
+        try {
+            for (var path : paths) {
+                if (!Files.isDirectory(path)) {
+                    force(path);
+                }
+            }
+            for (var path : paths) {
+                if (Files.isDirectory(path)) {
+                    force(path);
+                }
+            }
+        } finally {
+            paths.clear();
+        }
+    }
+
+    private void force(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ex) {
+            // Directories can't be opened on some platforms (e.g. Windows), only the files must be synced there
+            if (!Files.isDirectory(path)) {
+                throw ex;
+            }
+            logger.debug("Unable to sync directory {}", path, ex);
+        }
+    }
+
+    /**
+     * Remembers the path to sync it when the batch is flushed, files and the directory entries of new files.
+     */
+    private void written(Path path) {
+        if (isSync()) {
+            unsynced.get().add(path);
+        }
     }
 
     private void saveJSONFile(Path filePath, Object content) throws IOException {
         objectMapper.writeValue(filePath.toFile(), content);
+        written(filePath);
+        written(filePath.getParent());
     }
 
-    private void saveGzippedContent(Path gzipFilePath, String content) throws IOException {
-        try (OutputStream fileOutputStream = Files.newOutputStream(gzipFilePath, StandardOpenOption.CREATE);
+    private void saveGzippedContent(Path gzipFilePath, byte[] content) throws IOException {
+        try (OutputStream fileOutputStream = Files.newOutputStream(gzipFilePath);
              GZIPOutputStream gzipOutputStream = new GZIPOutputStream(fileOutputStream)) {
-            gzipOutputStream.write(content.getBytes());
+            gzipOutputStream.write(content);
         }
+        written(gzipFilePath);
+        written(gzipFilePath.getParent());
     }
 }
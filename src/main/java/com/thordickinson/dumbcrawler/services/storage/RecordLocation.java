@@ -0,0 +1,9 @@
+package com.thordickinson.dumbcrawler.services.storage;
+
+import java.nio.file.Path;
+
+/**
+ * Where a record was written, the length is the size of the record in the file, compressed or not.
+ */
+record RecordLocation(Path file, long offset, long length) {
+}
@@ -0,0 +1,37 @@
+package com.thordickinson.dumbcrawler.services.storage;
+
+/**
+ * Layout of the segment files, all numbers are big endian.
+ * <p>
+ * A {@code .seg} file is a sequence of records, each one a fixed header followed by the UTF-8 url and the deflated
+ * body:
+ * <pre>
+ * int    magic
+ * byte   type (page or revisit)
+ * byte[16] url id
+ * long   timestamp, epoch millis
+ * int    url length
+ * int    body length
+ * int    compressed body length
+ * </pre>
+ * The {@code .idx} sidecar of each segment has one fixed size entry per page record: url id, offset of the record
+ * in the segment and its total length. Revisits are not indexed.
+ */
+final class SegmentFormat {
+
+    static final int MAGIC = 0x44435347;
+    static final byte TYPE_PAGE = 0;
+    static final byte TYPE_REVISIT = 1;
+    static final int HEADER_SIZE = 4 + 1 + 16 + 8 + 4 + 4 + 4;
+    static final int INDEX_ENTRY_SIZE = 16 + 8 + 4;
+    static final String SEGMENT_EXTENSION = ".seg";
+    static final String INDEX_EXTENSION = ".idx";
+
+    private SegmentFormat() {
+
+    }
+
+    static String indexFileName(String segmentFileName) {
+        return segmentFileName.substring(0, segmentFileName.length() - SEGMENT_EXTENSION.length()) + INDEX_EXTENSION;
+    }
+}
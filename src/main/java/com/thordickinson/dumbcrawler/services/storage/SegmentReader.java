@@ -0,0 +1,138 @@
+package com.thordickinson.dumbcrawler.services.storage;
+
+import com.thordickinson.dumbcrawler.api.UrlId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static com.thordickinson.dumbcrawler.services.storage.SegmentFormat.*;
+
+/**
+ * Random access to the pages of a segment directory by url id. The sidecar indexes are loaded in memory when the
+ * reader is created, later segments win so the latest copy of a page is read. Entries pointing past the end of
+ * their segment, left by a crawler that stopped before flushing it, are ignored. Not thread safe.
+ */
+public class SegmentReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentReader.class);
+
+    private final Map<UrlId, RecordLocation> locations = new HashMap<>();
+
+    public SegmentReader(Path directory) throws IOException {
+        if (Files.isDirectory(directory)) {
+            loadIndexes(directory);
+        }
+    }
+
+    private void loadIndexes(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            // Segment names start with their creation time, sorting them by name loads them in write order
+            var segments = files.filter(p -> p.getFileName().toString().endsWith(SEGMENT_EXTENSION)).sorted().toList();
+            for (var segment : segments) {
+                var indexFile = segment.resolveSibling(indexFileName(segment.getFileName().toString()));
+                if (Files.exists(indexFile)) {
+                    loadIndex(segment, indexFile);
+                }
+            }
+        }
+        logger.info("Loaded {} page locations from {}", locations.size(), directory);
+    }
+
+    private void loadIndex(Path segment, Path indexFile) throws IOException {
+        var segmentSize = Files.size(segment);
+        var entries = Files.size(indexFile) / INDEX_ENTRY_SIZE;
+        var urlId = new byte[UrlId.SIZE];
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            for (long i = 0; i < entries; i++) {
+                in.readFully(urlId);
+                var offset = in.readLong();
+                var length = in.readInt();
+                if (offset + length > segmentSize) {
+                    logger.warn("Ignoring index entries past the end of {}", segment);
+                    return;
+                }
+                locations.put(UrlId.fromBytes(urlId), new RecordLocation(segment, offset, length));
+            }
+        }
+    }
+
+    void put(UrlId urlId, RecordLocation location) {
+        locations.put(urlId, location);
+    }
+
+    public boolean contains(UrlId urlId) {
+        return locations.containsKey(urlId);
+    }
+
+    public int size() {
+        return locations.size();
+    }
+
+    /**
+     * Latest stored copy of the page, records still in the writer buffer are not visible.
+     */
+    public Optional<SegmentRecord> read(UrlId urlId) throws IOException {
+        var location = locations.get(urlId);
+        if (location == null) {
+            return Optional.empty();
+        }
+        try (var channel = FileChannel.open(location.file())) {
+            return Optional.of(readRecord(channel, location.offset(), (int) location.length()));
+        }
+    }
+
+    /**
+     * Reads the record of the given total length that starts at the offset.
+     */
+    public static SegmentRecord readRecord(FileChannel channel, long offset, int length) throws IOException {
+        var buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Truncated record at " + offset);
+            }
+        }
+        buffer.flip();
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Invalid record at " + offset);
+        }
+        var revisit = buffer.get() == TYPE_REVISIT;
+        var urlId = new byte[UrlId.SIZE];
+        buffer.get(urlId);
+        var timestamp = buffer.getLong();
+        var url = new byte[buffer.getInt()];
+        var body = new byte[buffer.getInt()];
+        var compressedLength = buffer.getInt();
+        buffer.get(url);
+        var inflater = new Inflater();
+        try {
+            inflater.setInput(buffer.array(), buffer.position(), compressedLength);
+            var count = 0;
+            while (count < body.length && !inflater.finished()) {
+                var inflated = inflater.inflate(body, count, body.length - count);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new EOFException("Truncated compressed body at " + offset);
+                }
+                count += inflated;
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Invalid compressed body at " + offset, ex);
+        } finally {
+            inflater.end();
+        }
+        return new SegmentRecord(UrlId.fromBytes(urlId), new String(url, StandardCharsets.UTF_8), timestamp, revisit, body);
+    }
+}
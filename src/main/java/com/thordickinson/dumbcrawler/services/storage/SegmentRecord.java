@@ -0,0 +1,10 @@
+package com.thordickinson.dumbcrawler.services.storage;
+
+import com.thordickinson.dumbcrawler.api.UrlId;
+
+/**
+ * Page stored in a segment file. A revisit only records that the page was fetched again without changes, its body
+ * is empty.
+ */
+public record SegmentRecord(UrlId urlId, String url, long timestamp, boolean revisit, byte[] body) {
+}
@@ -0,0 +1,101 @@
+package com.thordickinson.dumbcrawler.services.storage;
+
+import com.thordickinson.dumbcrawler.api.CrawlingResult;
+import com.thordickinson.dumbcrawler.api.CrawlingSessionContext;
+import com.thordickinson.dumbcrawler.api.UrlId;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+
+/**
+ * Packs the pages into append-only segment files instead of a directory per page, see {@link SegmentFormat}. Each
+ * segment has a sidecar index of the pages it holds, loaded in memory at startup so pages can be read by url id.
+ */
+@Service
+public class SegmentStorageManager extends AbstractStorageManager {
+
+    private SegmentWriter writer;
+    private SegmentReader reader;
+
+    public SegmentStorageManager() {
+        super("segmentStorage");
+    }
+
+    /**
+     * Pages crawled again are appended to the current segment and the index moves to the new copy.
+     */
+    @Override
+    protected synchronized void doStoreResult(CrawlingResult result, CrawlingSessionContext sessionContext) throws IOException {
+        var task = result.task();
+        var stored = reader.contains(task.urlId());
+        var location = writer.write(new SegmentRecord(task.urlId(), task.url(), System.currentTimeMillis(), false,
+                result.content().body()));
+        reader.put(task.urlId(), location);
+        if (stored) {
+            logger.info("Updating segment with new crawled page {}", task.url());
+            sessionContext.increaseCounter("UPDATED_PAGES");
+        } else {
+            logger.info("Saving page for the first time {}", task.url());
+            sessionContext.increaseCounter("NEW_SAVED_PAGES");
+            sessionContext.setVariable(WarcStorageManager.LAST_NEW_PAGE_SAVED_AT_KEY, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Unchanged pages get a revisit record with no body, pages that were never stored are saved in full.
+     */
+    @Override
+    protected synchronized void doStoreRevisit(CrawlingResult result, CrawlingSessionContext sessionContext) throws IOException {
+        var task = result.task();
+        if (!reader.contains(task.urlId())) {
+            if (result.content().isNotModified()) {
+                logger.debug("Page not modified but never stored: {}", task.url());
+                return;
+            }
+            doStoreResult(result, sessionContext);
+            return;
+        }
+        writer.write(new SegmentRecord(task.urlId(), task.url(), System.currentTimeMillis(), true, new byte[0]));
+        logger.debug("Revisit recorded for {}", task.url());
+    }
+
+    @Override
+    protected synchronized void flush(boolean sync) throws IOException {
+        writer.flush(sync);
+    }
+
+    /**
+     * Latest stored copy of the page, the pending records are flushed first so they can be read too.
+     */
+    public synchronized Optional<SegmentRecord> read(UrlId urlId) throws IOException {
+        writer.flush(false);
+        return reader.read(urlId);
+    }
+
+    @Override
+    protected void loadConfigurations(CrawlingSessionContext context) {
+        long maxFileSize = 1024L * 1024 * context.getIntConf("storage.maxFileSize", 50);
+        var compressionLevel = context.getIntConf("storage.compressionLevel", 6);
+        try {
+            reader = new SegmentReader(context.getCrawlDir());
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Error loading the segment indexes", ex);
+        }
+        writer = new SegmentWriter(context.getCrawlDir(), maxFileSize, compressionLevel);
+        super.loadConfigurations(context);
+    }
+
+    @Override
+    public synchronized void destroy() {
+        try {
+            if (writer != null) {
+                writer.close();
+            }
+        } catch (IOException ex) {
+            logger.error("Error closing segment storage", ex);
+        }
+        super.destroy();
+    }
+}
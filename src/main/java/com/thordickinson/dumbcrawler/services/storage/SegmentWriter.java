@@ -0,0 +1,160 @@
+package com.thordickinson.dumbcrawler.services.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.zip.Deflater;
+
+import static com.thordickinson.dumbcrawler.services.storage.SegmentFormat.*;
+
+/**
+ * Appends records to the segment being filled and their entries to its sidecar index, see {@link SegmentFormat}.
+ * Both files stay open behind buffers and a new segment is started once the current one reaches
+ * {@code maxFileSize}. Not thread safe.
+ */
+class SegmentWriter implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentWriter.class);
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final Path directory;
+    private final long maxFileSize;
+    private final Deflater deflater;
+    private final byte[] deflateBuffer = new byte[64 * 1024];
+    private final ByteArrayOutputStream compressed = new ByteArrayOutputStream(64 * 1024);
+    private Path currentFile;
+    private FileChannel segmentChannel;
+    private FileChannel indexChannel;
+    private DataOutputStream segment;
+    private DataOutputStream index;
+    private long position;
+
+    SegmentWriter(Path directory, long maxFileSize, int compressionLevel) {
+        if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        this.directory = directory;
+        this.maxFileSize = maxFileSize;
+        this.deflater = new Deflater(compressionLevel);
+    }
+
+    /**
+     * Appends the record and, for pages, its index entry. Both stay in the buffers until {@link #flush(boolean)} is called.
+     */
+    RecordLocation write(SegmentRecord record) throws IOException {
+        if (segment == null || position >= maxFileSize) {
+            rotate();
+        }
+        var url = record.url().getBytes(StandardCharsets.UTF_8);
+        deflate(record.body());
+        segment.writeInt(MAGIC);
+        segment.writeByte(record.revisit() ? TYPE_REVISIT : TYPE_PAGE);
+        segment.write(record.urlId().toBytes());
+        segment.writeLong(record.timestamp());
+        segment.writeInt(url.length);
+        segment.writeInt(record.body().length);
+        segment.writeInt(compressed.size());
+        segment.write(url);
+        compressed.writeTo(segment);
+        var length = HEADER_SIZE + url.length + compressed.size();
+        var location = new RecordLocation(currentFile, position, length);
+        position += length;
+        if (!record.revisit()) {
+            index.write(record.urlId().toBytes());
+            index.writeLong(location.offset());
+            index.writeInt(length);
+        }
+        return location;
+    }
+
+    private void deflate(byte[] body) {
+        compressed.reset();
+        deflater.reset();
+        deflater.setInput(body);
+        deflater.finish();
+        while (!deflater.finished()) {
+            var count = deflater.deflate(deflateBuffer);
+            compressed.write(deflateBuffer, 0, count);
+        }
+    }
+
+    /**
+     * Writes out the segment before the index, an index entry never points to a record that was not written. With
+     * {@code sync} each file is synced after it is written out.
+     */
+    void flush(boolean sync) throws IOException {
+        if (segment != null) {
+            segment.flush();
+            if (sync) {
+                segmentChannel.force(false);
+            }
+            index.flush();
+            if (sync) {
+                indexChannel.force(false);
+            }
+        }
+    }
+
+    private void rotate() throws IOException {
+        closeFiles();
+        Files.createDirectories(directory);
+        // Segments are named after the creation time, one rotated within the same millisecond takes the next one
+        var timestamp = Instant.now().toEpochMilli();
+        while (segmentChannel == null) {
+            var path = directory.resolve("segment_" + timestamp + SEGMENT_EXTENSION);
+            try {
+                segmentChannel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                currentFile = path;
+            } catch (FileAlreadyExistsException ex) {
+                timestamp++;
+            }
+        }
+        indexChannel = FileChannel.open(directory.resolve(indexFileName(currentFile.getFileName().toString())),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        segment = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(segmentChannel), BUFFER_SIZE));
+        index = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(indexChannel), BUFFER_SIZE / 8));
+        position = 0;
+        logger.info("Created new segment: {}", currentFile);
+    }
+
+    private void closeFiles() throws IOException {
+        if (segment == null) {
+            return;
+        }
+        try {
+            segment.flush();
+            segmentChannel.force(false);
+            index.flush();
+            indexChannel.force(false);
+            segmentChannel.close();
+            indexChannel.close();
+        } finally {
+            segment = null;
+            index = null;
+            segmentChannel = null;
+            indexChannel = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            closeFiles();
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.thordickinson.dumbcrawler.services.storage;
+
+import org.netpreserve.jwarc.WarcRecord;
+import org.netpreserve.jwarc.WarcWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Long lived writer of the WARC file being filled. The file stays open behind a buffer and its size is tracked in
+ * memory, a new file is started once it reaches {@code maxFileSize}. Each record is serialized on its own so its
+ * offset and length in the file are known; when compressed it becomes an independent gzip member, the
+ * {@code .warc.gz} layout, so it can be read without inflating the records before it. Not thread safe.
+ */
+class WarcFileWriter implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WarcFileWriter.class);
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final Path directory;
+    private final long maxFileSize;
+    private final boolean compressed;
+    private final int compressionLevel;
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(64 * 1024);
+    private Path currentFile;
+    private FileChannel channel;
+    private BufferedOutputStream buffer;
+    private long position;
+
+    /**
+     * @param compressionLevel deflate level of each record, from 0 to 9, only used when {@code compressed}
+     */
+    WarcFileWriter(Path directory, long maxFileSize, boolean compressed, int compressionLevel) {
+        if (compressed && (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        this.directory = directory;
+        this.maxFileSize = maxFileSize;
+        this.compressed = compressed;
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Appends the record to the current file and returns where it was written. The record stays in the buffer until
+     * {@link #flush(boolean)} is called.
+     */
+    RecordLocation write(WarcRecord record) throws IOException {
+        if (channel == null || position >= maxFileSize) {
+            rotate();
+        }
+        recordBuffer.reset();
+        try (var writer = new WarcWriter(compressed ? new MemberOutputStream(recordBuffer, compressionLevel) : recordBuffer)) {
+            writer.write(record);
+        }
+        var location = new RecordLocation(currentFile, position, recordBuffer.size());
+        recordBuffer.writeTo(buffer);
+        position += recordBuffer.size();
+        return location;
+    }
+
+    /**
+     * Writes out the buffer, with {@code sync} the file is synced too so the records written so far survive a crash
+     * of the machine.
+     */
+    void flush(boolean sync) throws IOException {
+        if (buffer != null) {
+            buffer.flush();
+            if (sync) {
+                channel.force(false);
+            }
+        }
+    }
+
+    private void rotate() throws IOException {
+        close();
+        Files.createDirectories(directory);
+        var extension = compressed ? ".warc.gz" : ".warc";
+        // Files are named after the creation time, a file rotated within the same millisecond takes the next one
+        var timestamp = Instant.now().toEpochMilli();
+        while (channel == null) {
+            var path = directory.resolve("crawl_" + timestamp + extension);
+            try {
+                channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                currentFile = path;
+            } catch (FileAlreadyExistsException ex) {
+                timestamp++;
+            }
+        }
+        buffer = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+        position = 0;
+        logger.info("Created new WARC file: {}", currentFile);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            buffer.flush();
+            channel.force(false);
+            channel.close();
+        } finally {
+            buffer = null;
+            channel = null;
+        }
+    }
+
+    /**
+     * Gzip member of a single record at the configured level.
+     */
+    private static class MemberOutputStream extends GZIPOutputStream {
+        private MemberOutputStream(OutputStream out, int level) throws IOException {
+            super(out, 8192);
+            def.setLevel(level);
+        }
+    }
+}
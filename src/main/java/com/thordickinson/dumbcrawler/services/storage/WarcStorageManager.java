@@ -2,20 +2,24 @@ package com.thordickinson.dumbcrawler.services.storage;
 
 import com.thordickinson.dumbcrawler.api.CrawlingResult;
 import com.thordickinson.dumbcrawler.api.CrawlingSessionContext;
-import com.thordickinson.dumbcrawler.api.CrawlingTask;
+import com.thordickinson.dumbcrawler.api.UrlId;
+import com.thordickinson.dumbcrawler.util.Misc;
 import com.thordickinson.dumbcrawler.util.SQLiteConnection;
+import com.thordickinson.dumbcrawler.util.SQLiteProfile;
 import org.netpreserve.jwarc.MediaType;
+import org.netpreserve.jwarc.WarcDigest;
+import org.netpreserve.jwarc.WarcReader;
+import org.netpreserve.jwarc.WarcRecord;
 import org.netpreserve.jwarc.WarcResponse;
-import org.netpreserve.jwarc.WarcWriter;
+import org.netpreserve.jwarc.WarcRevisit;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.util.*;
 
@@ -25,118 +29,243 @@ public class WarcStorageManager extends AbstractStorageManager {
 
 
     public static final String LAST_NEW_PAGE_SAVED_AT_KEY = "LAST_NEW_PAGE_SAVED_AT";
+    /**
+     * Url id of the page in its response records, used to index again the records written after the last index
+     * flush when the crawler stopped abruptly.
+     */
+    static final String URL_ID_HEADER = "X-Url-Id";
+    private static final String UPSERT_SQL =
+            "INSERT OR REPLACE INTO url_index (url_hash, file_path, record_offset, record_length) VALUES (?, ?, ?, ?)";
 
-    private Path currentFile;
     private long maxFileSize = 1024 * 1024 * 50; // 50 MB max file size
     private SQLiteConnection dbConnection;
+    private WarcFileWriter writer;
+    private final Map<UrlId, RecordLocation> index = new HashMap<>();
+    private final Map<UrlId, RecordLocation> pendingIndex = new LinkedHashMap<>();
+    private final Map<String, Path> files = new HashMap<>();
+    private int indexBatchSize;
+    private long indexFlushInterval;
+    private long lastIndexFlush = System.currentTimeMillis();
 
     public WarcStorageManager() {
         super("warcStorage");
     }
 
 
-    protected void doStoreResult(CrawlingResult result, CrawlingSessionContext sessionContext) {
-        var fileToUpdate = getFileLocation(result.task());
-        var html = result.content();
-        if (fileToUpdate.isPresent()) {
-            updateWarcFile(fileToUpdate.get(), result.task(), html, sessionContext);
+    /**
+     * Every record goes to the current WARC file. Pages crawled again get a new response record there and the
+     * index is moved to it, older files are never reopened. The index keeps the offset and length of the record so
+     * it can be read by seeking to it, it's looked up in memory and written to the database in batches.
+     */
+    protected synchronized void doStoreResult(CrawlingResult result, CrawlingSessionContext sessionContext) throws IOException {
+        var task = result.task();
+        var location = writer.write(createResponse(result));
+        var previous = index.put(task.urlId(), location);
+        pendingIndex.put(task.urlId(), location);
+        if (previous != null) {
+            logger.info("Updating file with new crawled page {}", task.url());
+            sessionContext.increaseCounter("UPDATED_PAGES");
         } else {
-            saveToCurrentFile(result.task(), html, sessionContext);
+            logger.info("Saving page for the first time {}", task.url());
+            sessionContext.increaseCounter("NEW_SAVED_PAGES");
+            sessionContext.setVariable(LAST_NEW_PAGE_SAVED_AT_KEY, System.currentTimeMillis());
         }
     }
 
-    private void addToIndex(CrawlingTask task) {
-        //Adds the page + the currentFile to our index [do not implement this]
-        var path = getContext().getCrawlDir().relativize(currentFile).toString();
-        dbConnection.update("INSERT INTO url_index (url_hash, file_path) VALUES (?, ?)", List.of(task.urlId(), path));
+    /**
+     * Unchanged pages are written as {@code revisit} records, with the profile telling if the server answered 304 or
+     * the payload digest matched. Pages that were never stored are saved in full.
+     */
+    @Override
+    protected synchronized void doStoreRevisit(CrawlingResult result, CrawlingSessionContext sessionContext) throws IOException {
+        if (!index.containsKey(result.task().urlId())) {
+            if (result.content().isNotModified()) {
+                logger.debug("Page not modified but never stored: {}", result.task().url());
+                return;
+            }
+            doStoreResult(result, sessionContext);
+            return;
+        }
+        var profile = result.content().isNotModified() ?
+                WarcRevisit.SERVER_NOT_MODIFIED_1_1 : WarcRevisit.IDENTICAL_PAYLOAD_DIGEST_1_1;
+        var builder = new WarcRevisit.Builder(URI.create(result.task().url()), profile)
+                .date(Instant.now());
+        var payloadDigest = result.validators().payloadDigest();
+        if (payloadDigest != null) {
+            builder.payloadDigest(new WarcDigest(payloadDigest));
+        }
+        writer.write(builder.build());
+        logger.debug("Revisit recorded for {}", result.task().url());
     }
 
-    private Optional<Path> getFileLocation(CrawlingTask task) {
-        return dbConnection.singleResult(String.class, "SELECT file_path FROM url_index WHERE url_hash = ?", task.urlId())
-                .map(Path::of);
+    /**
+     * Records stay in the writer buffer until the batch they belong to is flushed. Index entries are written once
+     * {@code indexBatchSize} of them are pending or {@code indexFlushInterval} has passed, always after the records
+     * they point to.
+     */
+    @Override
+    protected synchronized void flush(boolean sync) throws IOException {
+        writer.flush(sync);
+        if (pendingIndex.size() >= indexBatchSize || System.currentTimeMillis() - lastIndexFlush >= indexFlushInterval) {
+            flushIndex();
+        }
     }
 
-    private void updateWarcFile(Path warcFilePath, CrawlingTask task, String content, CrawlingSessionContext sessionContext) {
-
-        logger.info("Updating file with new crawled page {}", task.url());
-        sessionContext.increaseCounter("UPDATED_PAGES");
-        try (OutputStream outStream = Files.newOutputStream(warcFilePath, StandardOpenOption.APPEND)) {
-            WarcWriter writer = new WarcWriter(outStream);
-
-            // Create a new WARC response record
-            WarcResponse response = createResponse(task, content);
-            // Write the new record to the WARC file
-            writer.write(response);
+    private void flushIndex() {
+        lastIndexFlush = System.currentTimeMillis();
+        if (pendingIndex.isEmpty()) {
+            return;
+        }
+        var crawlDir = getContext().getCrawlDir();
+        var rows = pendingIndex.entrySet().stream()
+                .<List<Object>>map(e -> List.of(e.getKey().toBytes(), crawlDir.relativize(e.getValue().file()).toString(),
+                        e.getValue().offset(), e.getValue().length()))
+                .toList();
+        dbConnection.batchUpdate(UPSERT_SQL, rows);
+        logger.debug("Flushed {} index entries", rows.size());
+        pendingIndex.clear();
+    }
 
-            logger.info("Updated WARC file with new content for URL: {}", task.url());
-        } catch (IOException e) {
-            logger.error("Error updating WARC file: {}", warcFilePath, e);
+    /**
+     * Loads the whole index in memory. Rows created before the record offsets have a -1 offset and length.
+     */
+    private void loadIndex(Path crawlDir) {
+        for (var row : dbConnection.query("SELECT url_hash, file_path, record_offset, record_length FROM url_index")) {
+            var file = files.computeIfAbsent((String) row.get(1), crawlDir::resolve);
+            index.put(UrlId.fromBytes((byte[]) row.get(0)), new RecordLocation(file, toLong(row.get(2)), toLong(row.get(3))));
         }
+        logger.info("Loaded {} entries of the file index", index.size());
     }
 
-    private WarcResponse createResponse(CrawlingTask task, String content){
-        return new WarcResponse.Builder(URI.create(task.url()))
-                .body(MediaType.HTML_UTF8, content.getBytes(StandardCharsets.UTF_8))
-                .date(Instant.now())
-                .build();
+    private static long toLong(Object value) {
+        return value instanceof Number number ? number.longValue() : -1;
     }
 
     /**
-     * Saves new content to the current WARC file. If the file exceeds the max size,
-     * a new WARC file is created.
-     *
-     * @param task     The URL of the page being archived.
-     * @param content The content of the web page.
+     * Indexes the response records written after the last indexed one, their entries were still pending when the
+     * crawler stopped. Only the newest indexed file and the files created after it are scanned.
      */
-    private void saveToCurrentFile(CrawlingTask task, String content, CrawlingSessionContext sessionContext) {
-        sessionContext.increaseCounter("NEW_SAVED_PAGES");
-        sessionContext.setVariable(LAST_NEW_PAGE_SAVED_AT_KEY, System.currentTimeMillis());
-        logger.info("Saving page for the first time {}", task.url());
-        try {
-            // Check if the current file exists and its size
-            if (currentFile == null || Files.notExists(currentFile) || Files.size(currentFile) >= maxFileSize) {
-                // If the file does not exist or is too large, create a new WARC file
-                currentFile = createNewWarcFile();
-            }
+    private void recoverIndex(Path crawlDir) throws IOException {
+        if (!Files.isDirectory(crawlDir)) {
+            return;
+        }
+        var newest = index.values().stream().max(Comparator.comparing(l -> l.file().getFileName().toString()));
+        var newestName = newest.map(l -> l.file().getFileName().toString()).orElse("");
+        var newestEnd = newest.map(l -> index.values().stream().filter(o -> o.file().equals(l.file()))
+                .mapToLong(o -> Math.max(0, o.offset() + o.length())).max().orElse(0)).orElse(0L);
+        List<Path> warcFiles;
+        try (var list = Files.list(crawlDir)) {
+            warcFiles = list.filter(p -> p.getFileName().toString().matches("crawl_\\d+\\.warc(\\.gz)?"))
+                    .filter(p -> p.getFileName().toString().compareTo(newestName) >= 0)
+                    .sorted().toList();
+        }
+        var recovered = 0;
+        for (var file : warcFiles) {
+            var start = file.getFileName().toString().equals(newestName) ? newestEnd : 0;
+            recovered += recoverFile(crawlDir, file, start);
+        }
+        if (recovered > 0) {
+            logger.info("Recovered {} index entries from the WARC files", recovered);
+            flushIndex();
+        }
+    }
 
-            // Open the current WARC file in append mode
-            try (OutputStream outStream = Files.newOutputStream(currentFile, StandardOpenOption.APPEND)) {
-                WarcWriter writer = new WarcWriter(outStream);
-                // Create a new WARC response record
-                WarcResponse response = createResponse(task, content);
-                // Write the new record to the WARC file
-                writer.write(response);
-                // Add the resource to the index (for future updates)
-                addToIndex(task);
-                logger.info("Saved new content to WARC file: {}", currentFile);
+    private int recoverFile(Path crawlDir, Path file, long start) throws IOException {
+        var size = Files.size(file);
+        if (start >= size) {
+            return 0;
+        }
+        var path = files.computeIfAbsent(crawlDir.relativize(file).toString(), crawlDir::resolve);
+        var recovered = 0;
+        try (var channel = FileChannel.open(file); var reader = new WarcReader(channel)) {
+            reader.position(start);
+            UrlId urlId = null;
+            var offset = start;
+            while (true) {
+                Optional<WarcRecord> record;
+                try {
+                    record = reader.next();
+                } catch (IOException ex) {
+                    logger.warn("Ignoring truncated record at {} of {}", offset, file);
+                    break;
+                }
+                // A record is complete once the next one starts where it ends or the file ends right after it
+                var end = reader.position();
+                if (urlId != null && (record.isPresent() || end == size)) {
+                    var location = new RecordLocation(path, offset, end - offset);
+                    index.put(urlId, location);
+                    pendingIndex.put(urlId, location);
+                    recovered++;
+                }
+                if (record.isEmpty()) {
+                    break;
+                }
+                offset = end;
+                urlId = record.get().headers().first(URL_ID_HEADER).map(UrlId::fromString).orElse(null);
+                try {
+                    record.get().body().consume();
+                } catch (IOException ex) {
+                    logger.warn("Ignoring truncated record at {} of {}", offset, file);
+                    break;
+                }
             }
-        } catch (IOException e) {
-            logger.error("Error saving content to WARC file", e);
         }
+        return recovered;
+    }
+
+    private WarcResponse createResponse(CrawlingResult result){
+        // The body is written with the bytes and charset the server sent
+        var content = result.content();
+        var mediaType = MediaType.parse("text/html;charset=" + content.charset().name());
+        return new WarcResponse.Builder(URI.create(result.task().url()))
+                .body(mediaType, content.body())
+                .payloadDigest(new WarcDigest(result.validators().payloadDigest()))
+                .addHeader(URL_ID_HEADER, result.task().urlId().toString())
+                .date(Instant.now())
+                .build();
+    }
+
+    private void initializeDB(CrawlingSessionContext context){
+        dbConnection = new SQLiteConnection(context.getSessionDir(), "file_index",
+                SQLiteProfile.fromConfig(context.getJobConfiguration(), "file_index"));
+        dbConnection.addTable("url_index", Map.of("url_hash", "BLOB NOT NULL PRIMARY KEY", "file_path", "TEXT NOT NULL",
+                "record_offset", "INTEGER", "record_length", "INTEGER"), false);
+        migrateUrlHashColumn();
+        addRecordLocationColumns();
     }
 
     /**
-     * Creates a new WARC file and returns its path.
-     *
-     * @return The path of the newly created WARC file.
+     * Indexes created before the record offsets only have the file, those rows keep null offsets.
      */
-    private Path createNewWarcFile() throws IOException {
-        // Generate a unique filename based on the timestamp
-        String fileName = "crawl_" + Instant.now().toEpochMilli() + ".warc";
-        Path newFilePath = getContext().getCrawlDir().resolve(fileName);
-
-        // Ensure the directory exists
-        Files.createDirectories(newFilePath.getParent());
-
-        // Create the new file
-        Files.createFile(newFilePath);
-        logger.info("Created new WARC file: {}", newFilePath);
-        return newFilePath;
+    private void addRecordLocationColumns() {
+        var columns = dbConnection.query("PRAGMA table_info(url_index)").stream()
+                .map(c -> String.valueOf(c.get(1))).toList();
+        if (columns.contains("record_offset")) {
+            return;
+        }
+        logger.info("Adding record location columns to file index");
+        dbConnection.update("ALTER TABLE url_index ADD COLUMN record_offset INTEGER");
+        dbConnection.update("ALTER TABLE url_index ADD COLUMN record_length INTEGER");
     }
 
-    private void initializeDB(CrawlingSessionContext context){
-        dbConnection = new SQLiteConnection(context.getSessionDir(), "file_index");
-        dbConnection.addTable("url_index", Map.of("url_hash", "TEXT NOT NULL PRIMARY KEY", "file_path", "TEXT NOT NULL"), false);
+    /**
+     * Indexes created before the binary url ids keyed the files by the hex id, they are rebuilt with BLOB keys.
+     */
+    private void migrateUrlHashColumn() {
+        var hashType = dbConnection.query("PRAGMA table_info(url_index)").stream()
+                .filter(c -> "url_hash".equals(String.valueOf(c.get(1))))
+                .map(c -> String.valueOf(c.get(2))).findFirst().orElse("");
+        if (!hashType.toUpperCase().startsWith("TEXT")) {
+            return;
+        }
+        logger.info("Migrating file index to binary url ids");
+        dbConnection.addBinaryFunction("url_id", s -> UrlId.fromString(s).toBytes());
+        dbConnection.inTransaction(() -> {
+            dbConnection.update("CREATE TABLE url_index_binary (url_hash BLOB NOT NULL PRIMARY KEY, file_path TEXT NOT NULL)");
+            dbConnection.update("INSERT OR REPLACE INTO url_index_binary SELECT url_id(url_hash), file_path FROM url_index");
+            dbConnection.update("DROP TABLE url_index");
+            dbConnection.update("ALTER TABLE url_index_binary RENAME TO url_index");
+        });
     }
 
 
@@ -145,12 +274,34 @@ public class WarcStorageManager extends AbstractStorageManager {
         // Initialize the StorageManager if needed
         int maxFileSizeMb = context.getIntConf("storage.maxFileSize", 50);
         maxFileSize = 1024L * 1024 * maxFileSizeMb;
+        var compress = context.getBoolConf("storage.compress", false);
+        var compressionLevel = context.getIntConf("storage.compressionLevel", 6);
+        indexBatchSize = context.getIntConf("storage.index.batchSize", 1000);
+        indexFlushInterval = Misc.parsePeriod(context.getStringConf("storage.index.flushInterval", "5s"));
         initializeDB(context);
+        loadIndex(context.getCrawlDir());
+        try {
+            recoverIndex(context.getCrawlDir());
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Error recovering the file index", ex);
+        }
+        writer = new WarcFileWriter(context.getCrawlDir(), maxFileSize, compress, compressionLevel);
         super.loadConfigurations(context);
     }
 
     @Override
-    public void destroy() {
+    public synchronized void destroy() {
+        try {
+            if (writer != null) {
+                writer.close();
+            }
+            if (dbConnection != null) {
+                flushIndex();
+                dbConnection.close();
+            }
+        } catch (Exception ex) {
+            logger.error("Error closing WARC storage", ex);
+        }
         super.destroy();
     }
 }
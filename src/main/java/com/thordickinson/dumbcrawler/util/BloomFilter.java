@@ -0,0 +1,63 @@
+package com.thordickinson.dumbcrawler.util;
+
+/**
+ * Bloom filter over 64 bit hashes backed by a {@code long[]} bitset. Answers "definitely not added" or
+ * "probably added", the false positive rate stays close to the configured one while the number of
+ * added values is below the expected count.
+ */
+public class BloomFilter {
+
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashCount;
+
+    public BloomFilter(long expectedValues, double falsePositiveRate) {
+        var n = Math.max(1, expectedValues);
+        var m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        m = Math.min(Math.max(m, 64), (long) Integer.MAX_VALUE * Long.SIZE);
+        this.bits = new long[(int) ((m + Long.SIZE - 1) / Long.SIZE)];
+        this.bitCount = (long) bits.length * Long.SIZE;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+    }
+
+    public void add(long value) {
+        var h1 = mix64(value);
+        var h2 = mix64(h1 ^ 0x9e3779b97f4a7c15L) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            var bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(long value) {
+        var h1 = mix64(value);
+        var h2 = mix64(h1 ^ 0x9e3779b97f4a7c15L) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            var bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getSizeInBytes() {
+        return (long) bits.length * Long.BYTES;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * Murmur3 finalizer, spreads the input bits so the filter also works with poorly distributed values.
+     */
+    private static long mix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
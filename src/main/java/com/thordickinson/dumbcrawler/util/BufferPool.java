@@ -0,0 +1,32 @@
+package com.thordickinson.dumbcrawler.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded pool of reusable byte arrays. Fetch threads may be virtual threads, so buffers are shared through a queue
+ * instead of being kept in thread locals. Buffers grown beyond the max pooled size are left to the GC.
+ */
+public class BufferPool {
+
+    private final BlockingQueue<byte[]> buffers;
+    private final int bufferSize;
+    private final int maxPooledSize;
+
+    public BufferPool(int capacity, int bufferSize, int maxPooledSize) {
+        this.buffers = new ArrayBlockingQueue<>(capacity);
+        this.bufferSize = bufferSize;
+        this.maxPooledSize = maxPooledSize;
+    }
+
+    public byte[] acquire() {
+        var buffer = buffers.poll();
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    public void release(byte[] buffer) {
+        if (buffer.length <= maxPooledSize) {
+            buffers.offer(buffer);
+        }
+    }
+}
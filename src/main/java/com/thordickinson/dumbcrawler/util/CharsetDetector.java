@@ -0,0 +1,64 @@
+package com.thordickinson.dumbcrawler.util;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Detects the charset of a page from its Content-Type header, a byte order mark or a meta tag in the first bytes of
+ * the body, in that order. Pages without any hint are read as UTF-8.
+ */
+public class CharsetDetector {
+
+    private static final int META_SCAN_LENGTH = 1024;
+    private static final Pattern CHARSET_PARAM = Pattern.compile("charset\\s*=\\s*[\"']?([\\w.:-]+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern META_CHARSET = Pattern.compile("<meta[^>]+charset\\s*=\\s*[\"']?([\\w.:-]+)", Pattern.CASE_INSENSITIVE);
+
+    private CharsetDetector() {
+
+    }
+
+    public static Charset detect(String contentType, byte[] body, int length) {
+        return fromContentType(contentType)
+                .or(() -> fromBom(body, length))
+                .or(() -> fromMeta(body, length))
+                .orElse(StandardCharsets.UTF_8);
+    }
+
+    public static Optional<Charset> fromContentType(String contentType) {
+        if (contentType == null) {
+            return Optional.empty();
+        }
+        var matcher = CHARSET_PARAM.matcher(contentType);
+        return matcher.find() ? forName(matcher.group(1)) : Optional.empty();
+    }
+
+    private static Optional<Charset> fromBom(byte[] body, int length) {
+        if (length >= 3 && (body[0] & 0xFF) == 0xEF && (body[1] & 0xFF) == 0xBB && (body[2] & 0xFF) == 0xBF) {
+            return Optional.of(StandardCharsets.UTF_8);
+        }
+        if (length >= 2 && (body[0] & 0xFF) == 0xFE && (body[1] & 0xFF) == 0xFF) {
+            return Optional.of(StandardCharsets.UTF_16BE);
+        }
+        if (length >= 2 && (body[0] & 0xFF) == 0xFF && (body[1] & 0xFF) == 0xFE) {
+            return Optional.of(StandardCharsets.UTF_16LE);
+        }
+        return Optional.empty();
+    }
+
+    private static Optional<Charset> fromMeta(byte[] body, int length) {
+        // Charset names and the meta tag are ASCII, ISO-8859-1 maps every byte to a char so nothing is lost
+        var head = new String(body, 0, Math.min(length, META_SCAN_LENGTH), StandardCharsets.ISO_8859_1);
+        var matcher = META_CHARSET.matcher(head);
+        return matcher.find() ? forName(matcher.group(1)) : Optional.empty();
+    }
+
+    private static Optional<Charset> forName(String name) {
+        try {
+            return Charset.isSupported(name) ? Optional.of(Charset.forName(name)) : Optional.empty();
+        } catch (IllegalArgumentException ex) {
+            return Optional.empty();
+        }
+    }
+}
@@ -4,6 +4,7 @@ import org.apache.commons.dbutils.QueryRunner;
 import org.apache.commons.dbutils.ResultSetHandler;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Collections;
@@ -75,17 +76,20 @@ public class JDBCUtil {
     }
 
     public static int executeUpdate(Connection connection, String sql, List<?> params) {
-        try {
-            var statement = connection.prepareStatement(sql);
-            for (int i = 0; i < params.size(); i++) {
-                statement.setObject(i + 1, params.get(i));
-            }
+        try (var statement = connection.prepareStatement(sql)) {
+            bindParams(statement, params);
             return statement.executeUpdate();
         } catch (SQLException ex) {
             throw new RuntimeException("Error executing update: %s".formatted(sql), ex);
         }
     }
 
+    public static void bindParams(PreparedStatement statement, List<?> params) throws SQLException {
+        for (int i = 0; i < params.size(); i++) {
+            statement.setObject(i + 1, params.get(i));
+        }
+    }
+
     public static String generateParams(int paramsPerRow, int rowCount){
         String row = generateParams(paramsPerRow);
         StringBuilder rows = new StringBuilder();
@@ -1,5 +1,6 @@
 package com.thordickinson.dumbcrawler.util;
 
+import okhttp3.HttpUrl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -7,6 +8,9 @@ import java.net.URI;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.Period;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Locale;
 import java.util.Optional;
 import java.util.regex.Matcher;
@@ -38,6 +42,14 @@ public class Misc {
         }
     }
 
+    /**
+     * Returns the host of the given url or an empty string when the url can't be parsed.
+     */
+    public static String getHost(String url) {
+        var parsed = HttpUrl.parse(url);
+        return parsed == null ? "" : parsed.host();
+    }
+
     public static Long parsePeriod(String period) {
         if (period == null)
             return null;
@@ -68,5 +80,26 @@ public class Misc {
         return instant.toEpochMilli();
     }
 
+    /**
+     * Milliseconds to wait according to a {@code Retry-After} header, given either as seconds or as an HTTP date.
+     * Returns 0 for missing or invalid values.
+     */
+    public static long parseRetryAfter(String value) {
+        if (value == null || value.isBlank()) {
+            return 0;
+        }
+        value = value.trim();
+        try {
+            if (value.chars().allMatch(Character::isDigit)) {
+                return Duration.ofSeconds(Long.parseLong(value)).toMillis();
+            }
+            var date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            return Math.max(0, date.toEpochMilli() - System.currentTimeMillis());
+        } catch (NumberFormatException | ArithmeticException | DateTimeParseException ex) {
+            logger.debug("Invalid Retry-After value: {}", value);
+            return 0;
+        }
+    }
+
 
 }
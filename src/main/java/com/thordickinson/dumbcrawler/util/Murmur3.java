@@ -0,0 +1,108 @@
+package com.thordickinson.dumbcrawler.util;
+
+import com.thordickinson.dumbcrawler.api.UrlId;
+import org.apache.commons.codec.digest.MurmurHash3;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * MurmurHash3 x64 128 bit with seed 0. ASCII strings are hashed reading the chars directly, any other string is
+ * hashed over its UTF-8 bytes, both paths return the same value {@link MurmurHash3#hash128x64(byte[])} does.
+ */
+public class Murmur3 {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private Murmur3() {
+    }
+
+    public static UrlId hash128(String value) {
+        if (!isAscii(value)) {
+            var hash = MurmurHash3.hash128x64(value.getBytes(StandardCharsets.UTF_8));
+            return new UrlId(hash[0], hash[1]);
+        }
+        var length = value.length();
+        long h1 = 0;
+        long h2 = 0;
+        var blockEnd = length & ~15;
+        for (int i = 0; i < blockEnd; i += 16) {
+            var k1 = getLong(value, i);
+            var k2 = getLong(value, i + 8);
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+        var tail = length - blockEnd;
+        for (int i = tail - 1; i >= 8; i--) {
+            k2 ^= (long) value.charAt(blockEnd + i) << ((i - 8) * 8);
+        }
+        if (tail > 8) {
+            h2 ^= mixK2(k2);
+        }
+        for (int i = Math.min(tail, 8) - 1; i >= 0; i--) {
+            k1 ^= (long) value.charAt(blockEnd + i) << (i * 8);
+        }
+        if (tail > 0) {
+            h1 ^= mixK1(k1);
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+        return new UrlId(h1, h2);
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long getLong(String value, int offset) {
+        long result = 0;
+        for (int i = 7; i >= 0; i--) {
+            result = (result << 8) | value.charAt(offset + i);
+        }
+        return result;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        return k2;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
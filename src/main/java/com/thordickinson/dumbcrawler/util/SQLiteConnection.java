@@ -2,17 +2,27 @@ package com.thordickinson.dumbcrawler.util;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sqlite.Function;
 
 import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
+import static com.thordickinson.dumbcrawler.util.JDBCUtil.bindParams;
 import static com.thordickinson.dumbcrawler.util.JDBCUtil.executeUpdate;
 import static com.thordickinson.dumbcrawler.util.JDBCUtil.generateParams;
 
+/**
+ * Lazily opened SQLite connection. Updates reuse prepared statements cached by SQL, so their SQL must not depend on
+ * the number of rows, and every public method is synchronized, so the connection can be shared with background
+ * writers.
+ */
 public class SQLiteConnection implements AutoCloseable {
 
     private record TableDef(String name, Map<String, String> columns, boolean withRowId, List<String> indices) {
@@ -25,14 +35,36 @@ public class SQLiteConnection implements AutoCloseable {
     }
 
     private static final Logger logger = LoggerFactory.getLogger(SQLiteConnection.class);
+    private static final int STATEMENT_CACHE_SIZE = 64;
     private final Path directory;
     private Connection connection;
     private final String fileName;
+    private final SQLiteProfile profile;
+    private long nextCheckpoint = Long.MAX_VALUE;
     private final List<TableDef> tables = new LinkedList<>();
+    private final Map<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= STATEMENT_CACHE_SIZE) {
+                return false;
+            }
+            closeStatement(eldest.getValue());
+            return true;
+        }
+    };
 
-    public SQLiteConnection(Path directory, String fileName){
+    public SQLiteConnection(Path directory, String fileName, SQLiteProfile profile){
         this.directory = directory;
         this.fileName = fileName;
+        this.profile = profile;
+    }
+
+    public SQLiteConnection(Path directory, String fileName){
+        this(directory, fileName, SQLiteProfile.DEFAULT);
+    }
+
+    public SQLiteConnection(Path directory, SQLiteProfile profile){
+        this(directory, "db", profile);
     }
 
     public SQLiteConnection(Path directory){
@@ -51,7 +83,7 @@ public class SQLiteConnection implements AutoCloseable {
         addTable(name, columns, false);
     }
 
-    public Connection getConnection(){
+    public synchronized Connection getConnection(){
         if(connection == null){
             connection = createConnection();
             initializeTables();
@@ -76,48 +108,199 @@ public class SQLiteConnection implements AutoCloseable {
         try {
             var conn = DriverManager.getConnection("jdbc:sqlite:%s".formatted(url.toAbsolutePath()));
             logger.info("Connected to database at: {}", url);
+            applyProfile(conn);
             return conn;
         } catch (SQLException ex) {
             throw new RuntimeException("Error connecting to: %s".formatted(url), ex);
         }
     }
 
+    private void applyProfile(Connection conn) throws SQLException {
+        try (var statement = conn.createStatement()) {
+            for (var pragma : profile.getPragmas()) {
+                logger.debug("Applying {} to {}", pragma, fileName);
+                statement.execute(pragma);
+            }
+        }
+        if (profile.checkpointInterval() != null) {
+            nextCheckpoint = System.currentTimeMillis() + profile.checkpointInterval();
+        }
+        logger.info("Storage profile for {}: {}", fileName, profile);
+    }
+
+    /**
+     * Runs the periodic wal_checkpoint when it is due, never inside a transaction.
+     */
+    private void checkpointIfDue() throws SQLException {
+        var now = System.currentTimeMillis();
+        if (now < nextCheckpoint || !connection.getAutoCommit()) {
+            return;
+        }
+        nextCheckpoint = now + profile.checkpointInterval();
+        try (var statement = connection.createStatement()) {
+            statement.execute(profile.getCheckpointPragma());
+        }
+        logger.debug("Checkpoint completed for {}", fileName);
+    }
+
+    /**
+     * Registers a single argument SQL function backed by the given java function.
+     */
+    public synchronized void addFunction(String name, UnaryOperator<String> function){
+        try {
+            Function.create(getConnection(), name, new Function() {
+                @Override
+                protected void xFunc() throws SQLException {
+                    result(function.apply(value_text(0)));
+                }
+            });
+        } catch (SQLException ex) {
+            throw new RuntimeException("Error registering function: %s".formatted(name), ex);
+        }
+    }
+
+    public synchronized void addBinaryFunction(String name, java.util.function.Function<String, byte[]> function){
+        try {
+            Function.create(getConnection(), name, new Function() {
+                @Override
+                protected void xFunc() throws SQLException {
+                    result(function.apply(value_text(0)));
+                }
+            });
+        } catch (SQLException ex) {
+            throw new RuntimeException("Error registering function: %s".formatted(name), ex);
+        }
+    }
+
+    private PreparedStatement prepare(String sql) throws SQLException {
+        var statement = statements.get(sql);
+        if (statement == null) {
+            statement = getConnection().prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    private void closeStatement(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ex) {
+            logger.warn("Error closing statement", ex);
+        }
+    }
+
     public int update(String sql, Object... params){
-        return executeUpdate(getConnection(), sql, Arrays.asList(params));
+        return update(sql, Arrays.asList(params));
+    }
+
+    public synchronized int update(String sql, List<?> params){
+        try {
+            var statement = prepare(sql);
+            bindParams(statement, params);
+            var updated = statement.executeUpdate();
+            checkpointIfDue();
+            return updated;
+        } catch (SQLException ex) {
+            throw new RuntimeException("Error executing update: %s".formatted(sql), ex);
+        }
     }
-    public int update(String sql, List<?> params){
-        return executeUpdate(getConnection(), sql, params);
+
+    /**
+     * Executes the statement once per row as a single JDBC batch inside a transaction.
+     *
+     * @return The total number of updated rows.
+     */
+    public synchronized int batchUpdate(String sql, List<? extends List<?>> rows){
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        return inTransaction(() -> {
+            try {
+                var statement = prepare(sql);
+                for (var row : rows) {
+                    bindParams(statement, row);
+                    statement.addBatch();
+                }
+                var updated = 0;
+                for (var count : statement.executeBatch()) {
+                    updated += Math.max(count, 0);
+                }
+                return updated;
+            } catch (SQLException ex) {
+                throw new RuntimeException("Error executing batch: %s".formatted(sql), ex);
+            }
+        });
+    }
+
+    /**
+     * Runs the given work in a single transaction, so all its writes share one commit. When called from inside
+     * another transaction the work just joins it.
+     */
+    public synchronized <T> T inTransaction(Supplier<T> work){
+        var conn = getConnection();
+        try {
+            if (!conn.getAutoCommit()) {
+                return work.get();
+            }
+            conn.setAutoCommit(false);
+            T result;
+            try {
+                result = work.get();
+                conn.commit();
+            } catch (RuntimeException ex) {
+                conn.rollback();
+                throw ex;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            checkpointIfDue();
+            return result;
+        } catch (SQLException ex) {
+            throw new RuntimeException("Error running transaction on: %s".formatted(fileName), ex);
+        }
+    }
+
+    public void inTransaction(Runnable work){
+        inTransaction(() -> {
+            work.run();
+            return null;
+        });
     }
 
     public int insert(String table, List<String> columns, Object... params){
         return insertMany(table, columns, List.of(Arrays.asList(params)));
     }
 
+    /**
+     * Inserts the rows as a batch of single row statements, a multi-row VALUES list would give a different SQL for
+     * every row count and fill the statement cache.
+     */
     public int insertMany(String table, List<String> columns, List<List<Object>> params){
-        var placeholders = generateParams(columns.size(), params.size());
-        String sql = "INSERT INTO %s (%s) VALUES %s".formatted(table, String.join(", ", columns), placeholders);
-        var allParams = params.stream().flatMap(Collection::stream).toList();
-        return executeUpdate(getConnection(), sql, allParams);
+        String sql = "INSERT INTO %s (%s) VALUES %s".formatted(table, String.join(", ", columns),
+                generateParams(columns.size()));
+        return batchUpdate(sql, params);
     }
 
-    public <T> Optional<T> singleResult(Class<T> expectedType, String query) {
+    public synchronized <T> Optional<T> singleResult(Class<T> expectedType, String query) {
         return JDBCUtil.singleResult(expectedType, getConnection(), query);
     }
 
-    public <T> Optional<T> singleResult(Class<T> expectedType, String query, Object... params) {
+    public synchronized <T> Optional<T> singleResult(Class<T> expectedType, String query, Object... params) {
         return JDBCUtil.singleResult(expectedType, getConnection(), query, Arrays.asList(params));
     }
 
-    public List<List<Object>> query(String sql, List<?> params){
+    public synchronized List<List<Object>> query(String sql, List<?> params){
         return JDBCUtil.query(getConnection(), sql, params);
     }
 
-    public List<List<Object>> query(String sql){
+    public synchronized List<List<Object>> query(String sql){
         return JDBCUtil.query(getConnection(), sql);
     }
 
     @Override
-    public void close() throws Exception {
+    public synchronized void close() throws Exception {
+        statements.values().forEach(this::closeStatement);
+        statements.clear();
         if(connection != null){
             this.connection.close();
         }
@@ -0,0 +1,85 @@
+package com.thordickinson.dumbcrawler.util;
+
+import com.jsoniter.any.Any;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Storage settings applied to a SQLite database when its connection is opened. Every value is read from
+ * {@code sqlite.<database>.<setting>} falling back to {@code sqlite.<setting>}, values that are not configured
+ * keep the driver defaults except for the journal mode and synchronous level.
+ *
+ * @param journalMode        journal_mode pragma, WAL by default.
+ * @param synchronous        synchronous pragma, NORMAL by default which is durable in WAL mode except on power loss.
+ * @param mmapSize           mmap_size pragma in bytes.
+ * @param cacheSize          cache_size pragma, negative values are KiB and positive values pages.
+ * @param tempStore          temp_store pragma.
+ * @param checkpointInterval Milliseconds between wal_checkpoint calls, disabled when null.
+ * @param checkpointMode     Mode used for the periodic wal_checkpoint.
+ */
+public record SQLiteProfile(String journalMode, String synchronous, Long mmapSize, Integer cacheSize,
+                            String tempStore, Long checkpointInterval, String checkpointMode) {
+
+    private static final Set<String> JOURNAL_MODES = Set.of("DELETE", "TRUNCATE", "PERSIST", "MEMORY", "WAL", "OFF");
+    private static final Set<String> SYNCHRONOUS_LEVELS = Set.of("OFF", "NORMAL", "FULL", "EXTRA");
+    private static final Set<String> TEMP_STORES = Set.of("DEFAULT", "FILE", "MEMORY");
+    private static final Set<String> CHECKPOINT_MODES = Set.of("PASSIVE", "FULL", "RESTART", "TRUNCATE");
+
+    public static final SQLiteProfile DEFAULT = new SQLiteProfile("WAL", "NORMAL", null, null, null, null, "PASSIVE");
+
+    public SQLiteProfile {
+        journalMode = validate("journalMode", journalMode, JOURNAL_MODES);
+        synchronous = validate("synchronous", synchronous, SYNCHRONOUS_LEVELS);
+        tempStore = validate("tempStore", tempStore, TEMP_STORES);
+        checkpointMode = validate("checkpointMode", checkpointMode, CHECKPOINT_MODES);
+    }
+
+    private static String validate(String name, String value, Set<String> allowed) {
+        if (value == null) {
+            return null;
+        }
+        var upper = value.toUpperCase(Locale.ENGLISH);
+        if (!allowed.contains(upper)) {
+            throw new IllegalArgumentException("Invalid sqlite %s: %s, expected one of %s".formatted(name, value, allowed));
+        }
+        return upper;
+    }
+
+    public static SQLiteProfile fromConfig(Any jobConfiguration, String database) {
+        var interval = get(jobConfiguration, database, "checkpointInterval").map(Any::toString).map(Misc::parsePeriod);
+        return new SQLiteProfile(
+                get(jobConfiguration, database, "journalMode").map(Any::toString).orElse(DEFAULT.journalMode()),
+                get(jobConfiguration, database, "synchronous").map(Any::toString).orElse(DEFAULT.synchronous()),
+                get(jobConfiguration, database, "mmapSize").map(Any::toLong).orElse(null),
+                get(jobConfiguration, database, "cacheSize").map(Any::toInt).orElse(null),
+                get(jobConfiguration, database, "tempStore").map(Any::toString).orElse(null),
+                interval.orElse(null),
+                get(jobConfiguration, database, "checkpointMode").map(Any::toString).orElse(DEFAULT.checkpointMode()));
+    }
+
+    private static Optional<Any> get(Any jobConfiguration, String database, String key) {
+        return JsonUtil.get(jobConfiguration, "sqlite.%s.%s".formatted(database, key))
+                .or(() -> JsonUtil.get(jobConfiguration, "sqlite." + key));
+    }
+
+    /**
+     * PRAGMA statements to run right after the connection is opened.
+     */
+    public List<String> getPragmas() {
+        var pragmas = new LinkedList<String>();
+        if (journalMode != null) pragmas.add("PRAGMA journal_mode = " + journalMode);
+        if (synchronous != null) pragmas.add("PRAGMA synchronous = " + synchronous);
+        if (mmapSize != null) pragmas.add("PRAGMA mmap_size = " + mmapSize);
+        if (cacheSize != null) pragmas.add("PRAGMA cache_size = " + cacheSize);
+        if (tempStore != null) pragmas.add("PRAGMA temp_store = " + tempStore);
+        return pragmas;
+    }
+
+    public String getCheckpointPragma() {
+        return "PRAGMA wal_checkpoint(%s)".formatted(checkpointMode == null ? "PASSIVE" : checkpointMode);
+    }
+}
@@ -0,0 +1,104 @@
+package com.thordickinson.dumbcrawler.expression;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionCompilerTest {
+
+	/**
+	 * Expressions of the README, as they are after the json config is read.
+	 */
+	private static final List<String> EXPRESSIONS = List.of(
+			"matches(host, 'example\\.com')",
+			"matches(path, '/articles/[0-9]+')",
+			"matches(host, '(\\w+\\.)?example\\.com')",
+			"matches(host, '(\\w+.)?example\\.com')",
+			"matches(path, '.*\\.(jpg|png|gif)$')",
+			"matches(path, '.*-(?<id>[0-9]+)(#[0-9]*)?$')",
+			"matches(path, '^/api/')",
+			"matches(path, '/products/[A-Z0-9-]+')",
+			"matches(query, 'q=')",
+			"matches(protocol, 'https')",
+			"isResource(path)",
+			"not isResource(path)",
+			"matches(host, 'example\\.com') and not isResource(path)",
+			"matches(host, '(\\w+\\.)?example\\.com') and not isResource(path)",
+			"matches(path, '/articles/.*') or matches(path, '/products/.*')",
+			"not matches(host, 'external\\.com')",
+			"matches(host, '(domain1|domain2)\\.com')",
+			"matches(extract(path, '/articles/(?<value>[0-9]+)'), '[0-9]{3,}')",
+			"(matches(path, '/category/.*') or matches(path, '/articles/.*')) and not matches(query, 'page=')");
+
+	private static final List<String> URLS = List.of(
+			"https://example.com/",
+			"https://www.example.com/articles/12345",
+			"https://www.example.com/articles/12",
+			"http://news.example.com/articles/some-title-98765",
+			"https://www.example.com/category/sports?page=2",
+			"https://www.example.com/search?q=crawler",
+			"https://www.example.com/images/photo.jpg",
+			"https://www.example.com/static/app.css",
+			"https://www.example.com/api/v1/items",
+			"https://shop.example.com/products/AB-123",
+			"https://external.com/articles/555",
+			"https://domain2.com/",
+			"https://exampleXcom.org/",
+			"http://localhost:8080/path#fragment");
+
+	@Test
+	void compiledExpressionsAgreeWithTheParser() {
+		var evaluator = ThreadLocalEvaluator.getThreadEvaluator();
+		for (var expression : EXPRESSIONS) {
+			var compiled = ExpressionCompiler.compile(expression);
+			assertFalse(compiled instanceof ExpressionCompiler.ParsedExpression, "Not compiled: " + expression);
+			for (var url : URLS) {
+				var variables = URLExpressionEvaluator.getVariablesFromUrl(url).orElseThrow();
+				var expected = evaluator.evaluateAs(Boolean.class, expression, variables).orElseThrow();
+				assertEquals(expected, compiled.evaluate(variables), expression + " on " + url);
+			}
+		}
+	}
+
+	@Test
+	void taggingEngineAgreesWithTheParser() {
+		var tags = new LinkedHashMap<String, String>();
+		for (int i = 0; i < EXPRESSIONS.size(); i++) {
+			tags.put("tag" + i, EXPRESSIONS.get(i));
+		}
+		var engine = TaggingEngine.compile(tags);
+		var evaluator = ThreadLocalEvaluator.getThreadEvaluator();
+		for (var url : URLS) {
+			var variables = URLExpressionEvaluator.getVariablesFromUrl(url).orElseThrow();
+			var expected = tags.entrySet().stream()
+					.filter(e -> evaluator.evaluateAs(Boolean.class, e.getValue(), variables).orElseThrow())
+					.map(Map.Entry::getKey).toList();
+			assertEquals(expected, engine.tag(url), url);
+		}
+	}
+
+	@Test
+	void extractAgreesWithTheParser() {
+		var expression = "extract(path, '/articles/(?<value>[0-9]+)')";
+		var evaluator = ThreadLocalEvaluator.getThreadEvaluator();
+		var compiled = ExpressionCompiler.compile("matches(" + expression + ", '12345')");
+		assertFalse(compiled instanceof ExpressionCompiler.ParsedExpression);
+		var variables = URLExpressionEvaluator.getVariablesFromUrl("https://www.example.com/articles/12345").orElseThrow();
+		assertEquals("12345", evaluator.evaluateAs(String.class, expression, variables).orElseThrow());
+		assertTrue(compiled.evaluate(variables));
+		variables = URLExpressionEvaluator.getVariablesFromUrl("https://www.example.com/articles/678").orElseThrow();
+		assertEquals("678", evaluator.evaluateAs(String.class, expression, variables).orElseThrow());
+		assertFalse(compiled.evaluate(variables));
+	}
+
+	@Test
+	void unsupportedExpressionsFallBackToTheParser() {
+		assertInstanceOf(ExpressionCompiler.ParsedExpression.class, ExpressionCompiler.compile("port = 8080"));
+		assertInstanceOf(ExpressionCompiler.ParsedExpression.class,
+				ExpressionCompiler.compile("matches(path, 'it\\'s')"));
+	}
+}
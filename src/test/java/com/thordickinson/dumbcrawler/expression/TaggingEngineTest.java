@@ -0,0 +1,72 @@
+package com.thordickinson.dumbcrawler.expression;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TaggingEngineTest {
+
+	@Test
+	void plainLiterals() {
+		assertEquals("/product/", TaggingEngine.requiredLiteral(".*/product/.*"));
+		assertEquals(".html", TaggingEngine.requiredLiteral(".*\\.html$"));
+	}
+
+	@Test
+	void escapesWithArgumentsAreConsumed() {
+		assertEquals("abc", TaggingEngine.requiredLiteral(".*\\x2Fabc.*"));
+		assertEquals("abc", TaggingEngine.requiredLiteral(".*\\x{2F}abc.*"));
+		assertEquals("page", TaggingEngine.requiredLiteral("\\u00e9page"));
+		assertEquals("bc", TaggingEngine.requiredLiteral("\\0101bc"));
+		assertEquals("xyz", TaggingEngine.requiredLiteral("\\cAxyz"));
+		assertEquals("foo", TaggingEngine.requiredLiteral("\\p{Lu}foo"));
+		assertEquals("foo", TaggingEngine.requiredLiteral("\\pLfoo"));
+		assertEquals("cd", TaggingEngine.requiredLiteral("(?<n>ab)\\k<n>cd"));
+		assertEquals("/id/", TaggingEngine.requiredLiteral(".*/id/\\d+"));
+	}
+
+	@Test
+	void backReferencesHaveNoLiteral() {
+		assertNull(TaggingEngine.requiredLiteral("(a)\\1bc"));
+	}
+
+	@Test
+	void groupsAndAlternations() {
+		assertEquals("ghij", TaggingEngine.requiredLiteral("abc(def)?ghij"));
+		assertEquals("baz", TaggingEngine.requiredLiteral("(foo|bar)baz"));
+		assertNull(TaggingEngine.requiredLiteral("foo|bar"));
+		assertNull(TaggingEngine.requiredLiteral("(?i)abc"));
+	}
+
+	@Test
+	void quantifiersDropTheOptionalChar() {
+		assertEquals("abc", TaggingEngine.requiredLiteral("abcd?e"));
+		assertEquals("abc", TaggingEngine.requiredLiteral("abcd*e"));
+		assertEquals("cde", TaggingEngine.requiredLiteral("ab{2}cde"));
+		assertEquals("a.", TaggingEngine.requiredLiteral("a\\.b?"));
+	}
+
+	@Test
+	void literalIsContainedInEveryMatch() {
+		var cases = List.of(
+				List.of(".*\\x2Fabc.*", "/abc", "x/abcx"),
+				List.of(".*\\u00e9t\\u00e9.*", "été"),
+				List.of("\\0101bc", "Abc"),
+				List.of("\\cAxyz", "\u0001xyz"),
+				List.of("\\p{Lu}foo", "Xfoo"),
+				List.of("(?<n>ab)\\k<n>cd", "ababcd"),
+				List.of("ab+c(d|e)?f{0,2}g", "abbbcg", "abcdffg"),
+				List.of(".*/(news|blog)/\\d{4}/.*", "https://x.com/blog/2024/post"));
+		for (var testCase : cases) {
+			var regex = testCase.get(0);
+			var literal = TaggingEngine.requiredLiteral(regex);
+			for (var sample : testCase.subList(1, testCase.size())) {
+				assertTrue(Pattern.compile(regex).matcher(sample).matches(), regex + " should match " + sample);
+				assertTrue(literal == null || sample.contains(literal), regex + " literal " + literal + " not in " + sample);
+			}
+		}
+	}
+}
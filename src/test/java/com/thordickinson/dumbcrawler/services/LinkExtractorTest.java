@@ -0,0 +1,137 @@
+package com.thordickinson.dumbcrawler.services;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LinkExtractorTest {
+
+	private static final String PAGE_URL = "https://www.example.com/news/2024/article.html?page=2#top";
+
+	@Test
+	void baseHrefIsUsedToResolve() {
+		var html = """
+				<html><head><base href="https://cdn.example.org/static/"></head>
+				<body><a href="img/logo.png">logo</a><a href="/about">about</a><a href="//other.com/x">x</a></body></html>
+				""";
+		assertSameAsJsoup(html, Set.of("https://cdn.example.org/static/img/logo.png",
+				"https://cdn.example.org/about", "https://other.com/x"));
+	}
+
+	@Test
+	void relativeBaseHrefIsResolvedAgainstThePage() {
+		var html = "<base href='/archive/'><a href='2023/old.html'>old</a>";
+		assertSameAsJsoup(html, Set.of("https://www.example.com/archive/2023/old.html"));
+	}
+
+	@Test
+	void nofollowLinksAreSkipped() {
+		var html = """
+				<a href="/follow" rel="noopener">follow</a>
+				<a href="/exact" rel="nofollow">exact</a>
+				<a href="/token" rel="x nofollow">token</a>
+				<a href="/upper" REL="NoFollow">upper</a>
+				<link rel="nofollow" href="/link-nofollow"><link rel="stylesheet" href="/style.css">
+				""";
+		assertSameAsJsoup(html, Set.of("https://www.example.com/follow", "https://www.example.com/style.css"));
+	}
+
+	@Test
+	void linksInScriptsStylesAndCommentsAreIgnored() {
+		var html = """
+				<script>document.write('<a href="/script">x</a>');</script>
+				<style>a[href="/style"] { color: red }</style>
+				<!-- <a href="/comment">commented</a> -->
+				<textarea><a href="/textarea"></a></textarea>
+				<title><a href="/title"></a></title>
+				<SCRIPT type="text/javascript">var s = "</scriptx><a href='/fake-end'>";</SCRIPT>
+				<a href="/visible">visible</a>
+				""";
+		assertSameAsJsoup(html, Set.of("https://www.example.com/visible"));
+	}
+
+	@Test
+	void unquotedAndEntityEncodedHrefs() {
+		var html = """
+				<a href=/unquoted?a=1>unquoted</a>
+				<a href='single'>single</a>
+				<A HREF = "/spaced" >spaced</A>
+				<a href="/search?q=a&amp;page=2">amp</a>
+				<a href="/search?q=b&#38;page=3">decimal</a>
+				<a href="/search?q=c&#x26;page=4">hex</a>
+				<a href="/caf&eacute;">named</a>
+				<a href="/legacy?a=1&copy=2">no semicolon</a>
+				""";
+		assertSameAsJsoup(html, Set.of("https://www.example.com/unquoted?a=1",
+				"https://www.example.com/news/2024/single", "https://www.example.com/spaced",
+				"https://www.example.com/search?q=a&page=2", "https://www.example.com/search?q=b&page=3",
+				"https://www.example.com/search?q=c&page=4", "https://www.example.com/caf\u00e9",
+				"https://www.example.com/legacy?a=1&copy=2"));
+	}
+
+	@Test
+	void queryOnlyAndParentReferences() {
+		var html = """
+				<a href="?page=3">query</a>
+				<a href="../2023/">parent</a>
+				<a href="../../../../root.html">above root</a>
+				<a href="./same.html">same</a>
+				<a href="#comments">fragment</a>
+				""";
+		assertSameAsJsoup(html, Set.of("https://www.example.com/news/2024/article.html?page=3",
+				"https://www.example.com/news/2023/", "https://www.example.com/root.html",
+				"https://www.example.com/news/2024/same.html",
+				"https://www.example.com/news/2024/article.html?page=2#comments"));
+	}
+
+	@Test
+	void differencesWithTheDomExtraction() {
+		// An empty reference is the page without its fragment (RFC 3986), absUrl kept the fragment
+		assertEquals(Set.of("https://www.example.com/news/2024/article.html?page=2"),
+				LinkExtractor.extractLinks("<a href=\"\">empty</a>", PAGE_URL));
+		assertEquals(Set.of(PAGE_URL), jsoupLinks("<a href=\"\">empty</a>"));
+		// Chars a browser would escape are percent encoded, absUrl left them as they were
+		assertEquals(Set.of("https://www.example.com/a%20b"),
+				LinkExtractor.extractLinks("<a href=\"/a b\">space</a>", PAGE_URL));
+		assertEquals(Set.of("https://www.example.com/a b"), jsoupLinks("<a href=\"/a b\">space</a>"));
+	}
+
+	@Test
+	void onlyHttpLinksAreKept() {
+		var html = """
+				<a href="mailto:news@example.com">mail</a><a href="javascript:void(0)">js</a>
+				<a href="ftp://files.example.com/a">ftp</a><a href="HTTP://WWW.EXAMPLE.COM/upper">upper</a>
+				<a href="https://www.example.com/ok">ok</a><a>no href</a>
+				""";
+		assertSameAsJsoup(html, Set.of("https://www.example.com/ok", "http://WWW.EXAMPLE.COM/upper"));
+	}
+
+	/**
+	 * Checks the links against the expected ones and against the DOM extraction the scanner replaced:
+	 * {@code a[href]} and {@code link[href]} resolved with {@code absUrl}, without the nofollow ones.
+	 */
+	private static void assertSameAsJsoup(String html, Set<String> expected) {
+		var links = LinkExtractor.extractLinks(html, PAGE_URL);
+		assertEquals(expected, links);
+		assertEquals(jsoupLinks(html), links);
+	}
+
+	private static Set<String> jsoupLinks(String html) {
+		var document = Jsoup.parse(html, PAGE_URL);
+		return document.select("a[href], link[href]").stream()
+				.filter(l -> !isNofollow(l))
+				.map(l -> l.absUrl("href"))
+				.filter(l -> l.startsWith("http://") || l.startsWith("https://"))
+				.collect(Collectors.toSet());
+	}
+
+	private static boolean isNofollow(Element link) {
+		return Arrays.stream(link.attr("rel").split("\\s+")).anyMatch(t -> t.equalsIgnoreCase("nofollow"));
+	}
+}
@@ -0,0 +1,130 @@
+package com.thordickinson.dumbcrawler.services.storage;
+
+import com.thordickinson.dumbcrawler.api.UrlId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static com.thordickinson.dumbcrawler.services.storage.SegmentFormat.SEGMENT_EXTENSION;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentStorageTest {
+
+	private static final long MAX_FILE_SIZE = 1024 * 1024;
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void pagesAreReadBack() throws IOException {
+		var first = page("https://www.example.com/", "<html>first</html>");
+		var second = page("https://www.example.com/café", randomBody(100_000));
+		try (var writer = new SegmentWriter(directory, MAX_FILE_SIZE, 6)) {
+			writer.write(first);
+			writer.write(second);
+			writer.write(new SegmentRecord(first.urlId(), first.url(), 3, true, new byte[0]));
+		}
+		var reader = new SegmentReader(directory);
+		assertEquals(2, reader.size());
+		assertRecord(first, reader.read(first.urlId()).orElseThrow());
+		assertRecord(second, reader.read(second.urlId()).orElseThrow());
+		assertTrue(reader.read(UrlId.fromString("https://www.example.com/missing")).isEmpty());
+	}
+
+	@Test
+	void writtenLocationsPointToTheRecords() throws IOException {
+		var record = page("https://www.example.com/page", "<p>body</p>");
+		var revisit = new SegmentRecord(record.urlId(), record.url(), 5, true, new byte[0]);
+		try (var writer = new SegmentWriter(directory, MAX_FILE_SIZE, 0)) {
+			var pageLocation = writer.write(record);
+			var revisitLocation = writer.write(revisit);
+			writer.flush(false);
+			assertEquals(pageLocation.offset() + pageLocation.length(), revisitLocation.offset());
+			try (var channel = FileChannel.open(pageLocation.file())) {
+				assertRecord(record, SegmentReader.readRecord(channel, pageLocation.offset(), (int) pageLocation.length()));
+				assertRecord(revisit, SegmentReader.readRecord(channel, revisitLocation.offset(),
+						(int) revisitLocation.length()));
+			}
+		}
+	}
+
+	@Test
+	void latestCopyWinsAcrossSegments() throws IOException {
+		var url = "https://www.example.com/news";
+		// Every record fills its segment, so each copy is written to a new one
+		try (var writer = new SegmentWriter(directory, 1, 6)) {
+			writer.write(page(url, "old"));
+			writer.write(page("https://www.example.com/other", "other"));
+			writer.write(page(url, "new"));
+		}
+		assertEquals(3, segments().length);
+		var reader = new SegmentReader(directory);
+		assertEquals(2, reader.size());
+		assertArrayEquals(bytes("new"), reader.read(UrlId.fromString(url)).orElseThrow().body());
+	}
+
+	@Test
+	void entriesPastATruncatedTailAreSkipped() throws IOException {
+		var first = page("https://www.example.com/1", "one");
+		var second = page("https://www.example.com/2", "two");
+		var third = page("https://www.example.com/3", randomBody(10_000));
+		try (var writer = new SegmentWriter(directory, MAX_FILE_SIZE, 6)) {
+			writer.write(first);
+			writer.write(second);
+			writer.write(third);
+		}
+		var segment = segments()[0];
+		try (var channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 1);
+		}
+		var reader = new SegmentReader(directory);
+		assertEquals(2, reader.size());
+		assertRecord(first, reader.read(first.urlId()).orElseThrow());
+		assertRecord(second, reader.read(second.urlId()).orElseThrow());
+		assertFalse(reader.contains(third.urlId()));
+	}
+
+	@Test
+	void missingDirectoryIsEmpty() throws IOException {
+		assertEquals(0, new SegmentReader(directory.resolve("missing")).size());
+	}
+
+	private Path[] segments() throws IOException {
+		try (var files = Files.list(directory)) {
+			return files.filter(p -> p.getFileName().toString().endsWith(SEGMENT_EXTENSION)).sorted().toArray(Path[]::new);
+		}
+	}
+
+	private static SegmentRecord page(String url, String body) {
+		return page(url, bytes(body));
+	}
+
+	private static SegmentRecord page(String url, byte[] body) {
+		return new SegmentRecord(UrlId.fromString(url), url, System.currentTimeMillis(), false, body);
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] randomBody(int length) {
+		var body = new byte[length];
+		new Random(length).nextBytes(body);
+		return body;
+	}
+
+	private static void assertRecord(SegmentRecord expected, SegmentRecord actual) {
+		assertEquals(expected.urlId(), actual.urlId());
+		assertEquals(expected.url(), actual.url());
+		assertEquals(expected.timestamp(), actual.timestamp());
+		assertEquals(expected.revisit(), actual.revisit());
+		assertArrayEquals(expected.body(), actual.body());
+	}
+}
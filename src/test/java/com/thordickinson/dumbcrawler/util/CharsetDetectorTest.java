@@ -0,0 +1,67 @@
+package com.thordickinson.dumbcrawler.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CharsetDetectorTest {
+
+	private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+	private static final String META_LATIN1 = "<html><head><meta charset=\"ISO-8859-1\"></head></html>";
+
+	@Test
+	void headerWinsOverBomAndMeta() {
+		var body = withBom(UTF8_BOM, META_LATIN1);
+		assertEquals(Charset.forName("windows-1252"), detect("text/html; charset=windows-1252", body));
+	}
+
+	@Test
+	void bomWinsOverMeta() {
+		assertEquals(StandardCharsets.UTF_8, detect("text/html", withBom(UTF8_BOM, META_LATIN1)));
+		assertEquals(StandardCharsets.UTF_16BE, detect(null, withBom(new byte[]{(byte) 0xFE, (byte) 0xFF}, META_LATIN1)));
+		assertEquals(StandardCharsets.UTF_16LE, detect(null, withBom(new byte[]{(byte) 0xFF, (byte) 0xFE}, META_LATIN1)));
+	}
+
+	@Test
+	void metaIsUsedWithoutHeaderOrBom() {
+		assertEquals(StandardCharsets.ISO_8859_1, detect("text/html", META_LATIN1.getBytes(StandardCharsets.US_ASCII)));
+		var httpEquiv = "<meta http-equiv='Content-Type' content='text/html; charset=Shift_JIS'>";
+		assertEquals(Charset.forName("Shift_JIS"), detect(null, httpEquiv.getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	@Test
+	void metaAfterTheScannedBytesIsIgnored() {
+		var html = " ".repeat(1024) + META_LATIN1;
+		assertEquals(StandardCharsets.UTF_8, detect(null, html.getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	@Test
+	void unknownCharsetsFallBack() {
+		var body = META_LATIN1.getBytes(StandardCharsets.US_ASCII);
+		assertEquals(StandardCharsets.ISO_8859_1, detect("text/html; charset=not-a-charset", body));
+		assertEquals(StandardCharsets.UTF_8, detect(null, "<p>no hints</p>".getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	@Test
+	void onlyTheGivenLengthIsRead() {
+		var body = withBom(UTF8_BOM, META_LATIN1);
+		assertEquals(StandardCharsets.UTF_8, CharsetDetector.detect(null, body, 0));
+		var meta = META_LATIN1.getBytes(StandardCharsets.US_ASCII);
+		assertEquals(StandardCharsets.UTF_8, CharsetDetector.detect(null, meta, 10));
+	}
+
+	private static Charset detect(String contentType, byte[] body) {
+		return CharsetDetector.detect(contentType, body, body.length);
+	}
+
+	private static byte[] withBom(byte[] bom, String html) {
+		var text = html.getBytes(StandardCharsets.US_ASCII);
+		var body = new byte[bom.length + text.length];
+		System.arraycopy(bom, 0, body, 0, bom.length);
+		System.arraycopy(text, 0, body, bom.length, text.length);
+		return body;
+	}
+}
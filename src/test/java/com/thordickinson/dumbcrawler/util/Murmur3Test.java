@@ -0,0 +1,43 @@
+package com.thordickinson.dumbcrawler.util;
+
+import com.thordickinson.dumbcrawler.api.UrlId;
+import org.apache.commons.codec.digest.MurmurHash3;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Murmur3Test {
+
+	@Test
+	void referenceVectors() {
+		assertEquals(new UrlId(0, 0), Murmur3.hash128(""));
+		assertEquals(new UrlId(0xe34bbc7bbc071b6cL, 0x7a433ca9c49a9347L),
+				Murmur3.hash128("The quick brown fox jumps over the lazy dog"));
+		assertEquals(new UrlId(0x629942693e10f867L, 0x92db0b82baeb5347L), Murmur3.hash128("hell"));
+		assertEquals(new UrlId(0xcbd8a7b341bd9b02L, 0x5b1e906a48ae1d19L), Murmur3.hash128("hello"));
+	}
+
+	@Test
+	void asciiMatchesHashOfBytesForEveryTailLength() {
+		var value = new StringBuilder();
+		for (int length = 0; length <= 48; length++) {
+			assertSameAsBytes(value.toString());
+			value.append((char) ('!' + length));
+		}
+		assertSameAsBytes("https://www.example.com/path/to/page.html?query=1&other=2#fragment");
+	}
+
+	@Test
+	void nonAsciiIsHashedAsUtf8() {
+		assertSameAsBytes("https://www.example.com/café");
+		assertSameAsBytes("https://例え.jp/テスト");
+		assertSameAsBytes("\u007f\u0080");
+	}
+
+	private static void assertSameAsBytes(String value) {
+		var expected = MurmurHash3.hash128x64(value.getBytes(StandardCharsets.UTF_8));
+		assertEquals(new UrlId(expected[0], expected[1]), Murmur3.hash128(value), value);
+	}
+}